@@ -0,0 +1,45 @@
+package run.ikaros.jellyfin;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+
+/**
+ * The DOM + Transformer nfo generation {@link XmlUtils} used before {@link NfoWriter},
+ * kept as the baseline of {@link NfoBenchmark}.
+ */
+public class DomNfo {
+
+    public static void writeEpisode(File file, String plot, String title, String season,
+                                    String episode, String subjectId) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        Document document = factory.newDocumentBuilder().newDocument();
+        document.setXmlStandalone(true);
+        Element root = document.createElement("episodedetails");
+        document.appendChild(root);
+        append(document, root, "plot", plot);
+        append(document, root, "lockdata", "false");
+        append(document, root, "title", title);
+        append(document, root, "season", season);
+        append(document, root, "episode", episode);
+        append(document, root, "bangumiid", subjectId);
+
+        TransformerFactory tff = TransformerFactory.newInstance();
+        Transformer tf = tff.newTransformer();
+        tf.setOutputProperty(OutputKeys.INDENT, "yes");
+        tf.transform(new DOMSource(document), new StreamResult(file));
+    }
+
+    private static void append(Document document, Element parent, String name, String text) {
+        Element element = document.createElement(name);
+        element.setTextContent(text);
+        parent.appendChild(element);
+    }
+}
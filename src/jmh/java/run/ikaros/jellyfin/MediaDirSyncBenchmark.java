@@ -0,0 +1,120 @@
+package run.ikaros.jellyfin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.support.StaticApplicationContext;
+import run.ikaros.api.infra.properties.IkarosProperties;
+import run.ikaros.api.infra.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full media dir sync over a synthetic library on tmpfs (/dev/shm when present).
+ * cold: every invocation starts from an empty media dir, i.e. the first sync.
+ * warm: the media dir and manifest are already up to date, i.e. a tick without changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class MediaDirSyncBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int episodes;
+
+    @Param({"cold", "warm"})
+    public String mode;
+
+    private Path workDir;
+    private SyntheticLibrary library;
+    private MediaDirInit mediaDirInit;
+    /**
+     * Worker pools and schedulers of mediaDirInit, released with it.
+     */
+    private final List<DisposableBean> components = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setupLibrary() throws IOException {
+        Path shm = Path.of("/dev/shm");
+        workDir = Files.isDirectory(shm) && Files.isWritable(shm)
+            ? Files.createTempDirectory(shm, "jellyfin-bench")
+            : Files.createTempDirectory("jellyfin-bench");
+        library = SyntheticLibrary.create(workDir, episodes);
+        if ("warm".equals(mode)) {
+            mediaDirInit = newMediaDirInit();
+            mediaDirInit.sync().block();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        if ("cold".equals(mode)) {
+            FileUtils.deletePathAndContentIfExists(workDir.resolve("jellyfin"));
+            mediaDirInit = newMediaDirInit();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws Exception {
+        if ("cold".equals(mode)) {
+            destroyComponents();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        destroyComponents();
+        FileUtils.deletePathAndContentIfExists(workDir);
+    }
+
+    @Benchmark
+    public SyncReport sync() {
+        return mediaDirInit.sync().block();
+    }
+
+    private MediaDirInit newMediaDirInit() {
+        IkarosProperties ikarosProperties = new IkarosProperties();
+        ikarosProperties.setWorkDir(workDir);
+        SyncConfig syncConfig = new SyncConfig();
+        SubjectScanner subjectScanner = new SubjectScanner(library.subjectOperate());
+        SubjectChangeDispatcher dispatcher = new SubjectChangeDispatcher(syncConfig);
+        FileLinker fileLinker = new FileLinker(syncConfig);
+        FsWorkerPool fsWorkerPool = new FsWorkerPool(syncConfig);
+        ArtworkRenderer artworkRenderer = new ArtworkRenderer(syncConfig, fileLinker);
+        JellyfinNotifier jellyfinNotifier = new JellyfinNotifier(syncConfig);
+        components.addAll(List.of(fsWorkerPool, artworkRenderer, jellyfinNotifier));
+        return new MediaDirInit(library.subjectOperate(), null,
+            new AttachmentResolver(library.attachmentOperate(),
+                library.attachmentRelationOperate(), syncConfig),
+            ikarosProperties, syncConfig, subjectScanner, dispatcher,
+            new SubjectMetaWatcher(subjectScanner, library.subjectOperate(), dispatcher,
+                syncConfig),
+            new SyncMetrics(new StaticApplicationContext()), fsWorkerPool,
+            new OrphanReconciler(syncConfig), fileLinker, artworkRenderer, jellyfinNotifier);
+    }
+
+    private void destroyComponents() throws Exception {
+        for (DisposableBean component : components) {
+            component.destroy();
+        }
+        components.clear();
+    }
+}
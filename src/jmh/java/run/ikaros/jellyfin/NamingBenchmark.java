@@ -0,0 +1,45 @@
+package run.ikaros.jellyfin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import run.ikaros.api.core.subject.Subject;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per subject and per episode naming work of the media dir generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NamingBenchmark {
+    private final Subject subject = Subject.builder()
+        .id(1L)
+        .name("ぼっち・ざ・ろっく！")
+        .nameCn("孤独摇滚！")
+        .airTime(LocalDateTime.of(2022, 10, 8, 0, 0))
+        .build();
+    private final String episodeFileName =
+        "[Nekomoe kissaten][Bocchi the Rock!][01][1080p][JPSC].mp4";
+
+    @Benchmark
+    public String buildMediaAnimeDirName() {
+        return MediaDirInit.buildMediaAnimeDirName(subject);
+    }
+
+    @Benchmark
+    public String episodeNfoName() {
+        return episodeFileName.replaceAll(RegexConst.FILE_POSTFIX, "") + ".nfo";
+    }
+}
@@ -0,0 +1,70 @@
+package run.ikaros.jellyfin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import run.ikaros.api.infra.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Episode nfo generation, the DOM + Transformer baseline against {@link NfoWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NfoBenchmark {
+    private static final String PLOT = "後藤ひとりは、ギターを始めたばかりの女の子。"
+        + "Lonely & shy, she <finally> joins a band.\nSecond line of the plot.";
+    private static final String TITLE = "転がる岩、君に朝が降る";
+
+    private Path dir;
+    private File domFile;
+    private Path nfoPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jellyfin-nfo-bench");
+        domFile = dir.resolve("dom.nfo").toFile();
+        nfoPath = dir.resolve("stream.nfo");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deletePathAndContentIfExists(dir);
+    }
+
+    @Benchmark
+    public File domWrite() throws Exception {
+        DomNfo.writeEpisode(domFile, PLOT, TITLE, "1", "12", "328609");
+        return domFile;
+    }
+
+    @Benchmark
+    public Path streamingWrite() throws IOException {
+        NfoWriter.writeAtomically(nfoPath,
+            NfoWriter.renderEpisode(PLOT, TITLE, "1", "12", "328609"));
+        return nfoPath;
+    }
+
+    @Benchmark
+    public String streamingRender() {
+        return NfoWriter.renderEpisode(PLOT, TITLE, "1", "12", "328609");
+    }
+}
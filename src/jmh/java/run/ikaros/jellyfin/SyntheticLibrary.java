@@ -0,0 +1,241 @@
+package run.ikaros.jellyfin;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.attachment.Attachment;
+import run.ikaros.api.core.attachment.AttachmentOperate;
+import run.ikaros.api.core.attachment.AttachmentRelation;
+import run.ikaros.api.core.attachment.AttachmentRelationOperate;
+import run.ikaros.api.core.attachment.AttachmentSearchCondition;
+import run.ikaros.api.core.attachment.AttachmentUploadCondition;
+import run.ikaros.api.core.subject.Episode;
+import run.ikaros.api.core.subject.EpisodeResource;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectMeta;
+import run.ikaros.api.core.subject.SubjectOperate;
+import run.ikaros.api.core.subject.SubjectSync;
+import run.ikaros.api.store.enums.AttachmentRelationType;
+import run.ikaros.api.store.enums.AttachmentType;
+import run.ikaros.api.store.enums.EpisodeGroup;
+import run.ikaros.api.store.enums.SubjectSyncPlatform;
+import run.ikaros.api.store.enums.SubjectType;
+import run.ikaros.api.wrap.PagingWrap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory subjects and attachments backed by small real files, served through
+ * fake {@link SubjectOperate}, {@link AttachmentOperate} and
+ * {@link AttachmentRelationOperate} implementations.
+ */
+public class SyntheticLibrary {
+    static final int EPISODES_PER_SUBJECT = 12;
+
+    private final List<Subject> subjects = new ArrayList<>();
+    private final Map<Long, Subject> subjectById = new HashMap<>();
+    private final Map<Long, Attachment> attachmentById = new HashMap<>();
+    private final Map<Long, List<Attachment>> attachmentsByParent = new HashMap<>();
+    private final Map<Long, List<AttachmentRelation>> subtitleRelations = new HashMap<>();
+
+    /**
+     * Create a library with roughly the given count of episodes under workDir,
+     * every other episode has a subtitle.
+     */
+    public static SyntheticLibrary create(Path workDir, int episodeCount) throws IOException {
+        SyntheticLibrary library = new SyntheticLibrary();
+        Path coverDir = Files.createDirectories(workDir.resolve("cover"));
+        Path fileDir = Files.createDirectories(workDir.resolve("files"));
+        long attachmentId = 1;
+        int subjectCount = Math.max(1, episodeCount / EPISODES_PER_SUBJECT);
+        for (long subjectId = 1; subjectId <= subjectCount; subjectId++) {
+            Path cover = Files.writeString(coverDir.resolve(subjectId + ".jpg"), "cover");
+            long parentId = attachmentId++;
+            List<Episode> episodes = new ArrayList<>();
+            for (int seq = 1; seq <= EPISODES_PER_SUBJECT; seq++) {
+                String name = "[Group][Subject " + subjectId + "][" + seq + "][1080p].mkv";
+                Attachment video = library.addAttachment(attachmentId++, parentId, name,
+                    Files.writeString(fileDir.resolve(subjectId + "-" + seq + ".mkv"), "v"));
+                if (seq % 2 == 0) {
+                    String subtitleName = name.replace(".mkv", ".ass");
+                    Attachment subtitle = library.addAttachment(attachmentId++, parentId,
+                        subtitleName,
+                        Files.writeString(fileDir.resolve(subjectId + "-" + seq + ".ass"), "s"));
+                    library.subtitleRelations.put(video.getId(), List.of(AttachmentRelation
+                        .builder()
+                        .attachmentId(video.getId())
+                        .type(AttachmentRelationType.VIDEO_SUBTITLE)
+                        .relationAttachmentId(subtitle.getId())
+                        .build()));
+                }
+                episodes.add(Episode.builder()
+                    .id(subjectId * 100 + seq)
+                    .subjectId(subjectId)
+                    .name("Episode " + seq)
+                    .nameCn("第" + seq + "话")
+                    .description("Synthetic episode " + seq + " of subject " + subjectId)
+                    .sequence(seq)
+                    .group(EpisodeGroup.MAIN)
+                    .resources(List.of(EpisodeResource.builder()
+                        .attachmentId(video.getId())
+                        .parentAttachmentId(parentId)
+                        .episodeId(subjectId * 100 + seq)
+                        .name(name)
+                        .build()))
+                    .build());
+            }
+            Subject subject = Subject.builder()
+                .id(subjectId)
+                .type(SubjectType.ANIME)
+                .name("Synthetic Subject " + subjectId)
+                .nameCn("合成条目 " + subjectId)
+                .summary("Synthetic subject summary " + subjectId)
+                .nsfw(subjectId % 10 == 0)
+                .airTime(LocalDateTime.of(2020, 1, 1, 0, 0).plusDays(subjectId))
+                .cover("/" + workDir.relativize(cover))
+                .episodes(episodes)
+                .syncs(List.of(SubjectSync.builder()
+                    .subjectId(subjectId)
+                    .platform(SubjectSyncPlatform.BGM_TV)
+                    .platformId(String.valueOf(100000 + subjectId))
+                    .build()))
+                .build();
+            library.subjects.add(subject);
+            library.subjectById.put(subjectId, subject);
+        }
+        return library;
+    }
+
+    private Attachment addAttachment(long id, long parentId, String name, Path file) {
+        Attachment attachment = Attachment.builder()
+            .id(id)
+            .parentId(parentId)
+            .type(AttachmentType.File)
+            .name(name)
+            .fsPath(file.toString())
+            .size(1L)
+            .updateTime(LocalDateTime.of(2023, 1, 1, 0, 0))
+            .build();
+        attachmentById.put(id, attachment);
+        attachmentsByParent.computeIfAbsent(parentId, k -> new ArrayList<>()).add(attachment);
+        return attachment;
+    }
+
+    public SubjectOperate subjectOperate() {
+        return new SubjectOperate() {
+            @Override
+            public Mono<Subject> findById(Long id) {
+                return Mono.justOrEmpty(subjectById.get(id));
+            }
+
+            @Override
+            public Flux<SubjectMeta> findAllByPageable(PagingWrap<Subject> pagingWrap) {
+                int from = Math.min(subjects.size(),
+                    (pagingWrap.getPage() - 1) * pagingWrap.getSize());
+                int to = Math.min(subjects.size(), from + pagingWrap.getSize());
+                return Flux.fromIterable(subjects.subList(from, to))
+                    .map(subject -> SubjectMeta.builder()
+                        .id(subject.getId())
+                        .type(subject.getType())
+                        .name(subject.getName())
+                        .nameCn(subject.getNameCn())
+                        .summary(subject.getSummary())
+                        .nsfw(subject.getNsfw())
+                        .airTime(subject.getAirTime())
+                        .cover(subject.getCover())
+                        .build());
+            }
+
+            @Override
+            public Mono<Subject> create(Subject subject) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Void> update(Subject subject) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Void> removeById(Long id) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Subject> syncByPlatform(Long subjectId, SubjectSyncPlatform platform,
+                                                String platformId) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Subject> findByPlatform(Long subjectId, SubjectSyncPlatform platform,
+                                                String keyword) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+        };
+    }
+
+    public AttachmentOperate attachmentOperate() {
+        return new AttachmentOperate() {
+            @Override
+            public Mono<Attachment> save(Attachment attachment) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<PagingWrap<Attachment>> listByCondition(
+                AttachmentSearchCondition searchCondition) {
+                List<Attachment> children = attachmentsByParent
+                    .getOrDefault(searchCondition.getParentId(), List.of());
+                int size = searchCondition.getSize();
+                int from = Math.min(children.size(), (searchCondition.getPage() - 1) * size);
+                int to = Math.min(children.size(), from + size);
+                return Mono.just(new PagingWrap<>(searchCondition.getPage(), size,
+                    children.size(), children.subList(from, to)));
+            }
+
+            @Override
+            public Mono<Void> removeById(Long attachmentId) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Attachment> upload(AttachmentUploadCondition uploadCondition) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Attachment> findById(Long attachmentId) {
+                return Mono.justOrEmpty(attachmentById.get(attachmentId));
+            }
+
+            @Override
+            public Mono<Attachment> findByTypeAndParentIdAndName(AttachmentType type,
+                                                                 Long parentId, String name) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Void> removeByTypeAndParentIdAndName(AttachmentType type, Long parentId,
+                                                             String name) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+
+            @Override
+            public Mono<Attachment> createDirectory(Long parentId, String name) {
+                return Mono.error(new UnsupportedOperationException());
+            }
+        };
+    }
+
+    public AttachmentRelationOperate attachmentRelationOperate() {
+        return (type, attachmentId) ->
+            Flux.fromIterable(subtitleRelations.getOrDefault(attachmentId, List.of()));
+    }
+}
@@ -0,0 +1,546 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import run.ikaros.api.core.attachment.Attachment;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Writes poster, fanart and episode thumbnails into subject dirs. A source no wider than
+ * the configured max width is linked as is, a wider one is scaled to a jpeg on a worker
+ * pool of its own ahead of rendering, so Jellyfin never has to process artwork while
+ * serving requests.
+ * What was rendered from which source is kept in a hidden state file per dir, an artwork
+ * whose source content hash has not changed is not touched again.
+ */
+@Slf4j
+@Component
+public class ArtworkRenderer implements DisposableBean {
+    static final String STATE_FILE_NAME = ".artwork.properties";
+    static final String FANART_FILE_NAME = "fanart";
+    static final String THUMB_SUFFIX = "-thumb";
+    private static final String SCALED_POSTFIX = ".jpg";
+    private static final Set<String> IMAGE_POSTFIXES = Set.of(".jpg", ".jpeg", ".png");
+    private static final Set<String> FANART_NAMES = Set.of("fanart", "backdrop", "background");
+    private static final int MAX_CACHED_HASHES = 10_000;
+    private static final int QUEUED_TASK_CAP = 100_000;
+    private static final float JPEG_QUALITY = 0.9f;
+
+    private final SyncConfig syncConfig;
+    private final FileLinker fileLinker;
+    /**
+     * path|size|mtime -> content hash of the source.
+     */
+    private final Map<String, String> sourceHashes = lruMap(MAX_CACHED_HASHES);
+    /**
+     * source hash:max width -> scaled jpeg, bounded by {@link SyncConfig#getArtworkCacheMb()}.
+     */
+    private final LinkedHashMap<String, byte[]> scaledImages =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long scaledImagesBytes;
+    private Scheduler scheduler;
+    private int schedulerSize;
+
+    public ArtworkRenderer(SyncConfig syncConfig, FileLinker fileLinker) {
+        this.syncConfig = syncConfig;
+        this.fileLinker = fileLinker;
+    }
+
+    public enum Kind {
+        POSTER,
+        FANART,
+        THUMB
+    }
+
+    /**
+     * An image of a subject to render as the artwork baseName.
+     */
+    public record Source(Kind kind, Path path, String baseName) {
+    }
+
+    /**
+     * Whether a file name looks like an image the renderer can use.
+     */
+    public static boolean isImage(String fileName) {
+        return fileName != null && IMAGE_POSTFIXES.contains(postfixOf(fileName));
+    }
+
+    /**
+     * The fanart among the images of snapshot, an image named fanart, backdrop or background.
+     */
+    public static Optional<Attachment> fanartOf(SubjectSnapshot snapshot) {
+        return snapshot.getImages().values().stream()
+            .flatMap(Collection::stream)
+            .filter(image -> FANART_NAMES.contains(baseNameOf(image.getName())))
+            .min(Comparator.comparing(Attachment::getId,
+                Comparator.nullsLast(Comparator.naturalOrder())));
+    }
+
+    /**
+     * The thumbnail of an episode file, an image next to it with the same base name.
+     */
+    public static Optional<Attachment> thumbOf(SubjectSnapshot snapshot, Attachment episode) {
+        if (episode == null || episode.getName() == null) {
+            return Optional.empty();
+        }
+        String episodeBaseName = baseNameOf(episode.getName());
+        return snapshot.imagesNextTo(episode).stream()
+            .filter(image -> {
+                String baseName = baseNameOf(image.getName());
+                return baseName.equals(episodeBaseName)
+                    || baseName.equals(episodeBaseName + THUMB_SUFFIX);
+            })
+            .findFirst();
+    }
+
+    /**
+     * Names the artwork of source may be written under, linked or scaled.
+     */
+    public static Set<String> fileNamesOf(String baseName, String sourceName) {
+        return Set.copyOf(List.of(baseName + postfixOf(sourceName), baseName + SCALED_POSTFIX));
+    }
+
+    /**
+     * Base name of the thumbnail of an episode file.
+     */
+    public static String thumbBaseName(String episodeFileName) {
+        return baseNameOf(episodeFileName, false) + THUMB_SUFFIX;
+    }
+
+    /**
+     * Configured max widths, changing them changes every subject fingerprint.
+     */
+    public String specKey() {
+        return "art" + syncConfig.getPosterMaxWidth() + 'x' + syncConfig.getFanartMaxWidth()
+            + 'x' + syncConfig.getThumbMaxWidth();
+    }
+
+    /**
+     * Scale the sources wider than the max width of their kind on the artwork workers,
+     * sources already rendered into every one of subjectDirs are left out. Compose this
+     * ahead of {@link #render}, so fs workers only write what was scaled here.
+     *
+     * @return source key -> scaled jpeg, to pass on to render
+     */
+    public Mono<Map<String, byte[]>> scale(List<Source> sources, List<Path> subjectDirs,
+                                           DirSnapshot dirs) {
+        if (sources.isEmpty() || subjectDirs.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return Mono.fromCallable(() -> scaleAll(sources, subjectDirs, dirs))
+            .subscribeOn(scheduler());
+    }
+
+    private Map<String, byte[]> scaleAll(List<Source> sources, List<Path> subjectDirs,
+                                         DirSnapshot dirs) {
+        List<State> states = subjectDirs.stream()
+            .map(dir -> State.load(dir, dirs.exists(dir.resolve(STATE_FILE_NAME))))
+            .toList();
+        Map<String, byte[]> scaled = new HashMap<>();
+        for (Source source : sources) {
+            int maxWidth = maxWidth(source.kind());
+            try {
+                String key = sourceHash(source.path()) + ':' + maxWidth;
+                boolean rendered = true;
+                for (int i = 0; i < subjectDirs.size() && rendered; i++) {
+                    rendered = isRendered(states.get(i), subjectDirs.get(i),
+                        source.baseName(), key, dirs);
+                }
+                if (rendered || scaled.containsKey(key)) {
+                    continue;
+                }
+                Integer width = widthOf(source.path());
+                if (width != null && width > maxWidth) {
+                    byte[] bytes = scaled(source.path(), key, maxWidth);
+                    if (bytes != null) {
+                        scaled.put(key, bytes);
+                    }
+                }
+            } catch (IOException e) {
+                // render fails on the same source and reports it
+                log.debug("read artwork source fail: [{}].", source.path(), e);
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Render source as the artwork baseName into dir.
+     *
+     * @param scaled what {@link #scale} returned, a source missing there is linked as is
+     * @return true if a file was written or linked, false if source is unchanged
+     */
+    public boolean render(Kind kind, Path source, Path dir, String baseName, State state,
+                          Map<String, byte[]> scaled, DirSnapshot dirs) throws IOException {
+        String key = sourceHash(source) + ':' + maxWidth(kind);
+        if (isRendered(state, dir, baseName, key, dirs)) {
+            return false;
+        }
+
+        byte[] bytes = scaled.get(key);
+        String fileName;
+        if (bytes != null) {
+            fileName = baseName + SCALED_POSTFIX;
+            Path target = dir.resolve(fileName);
+            NfoWriter.writeAtomically(target, bytes);
+            dirs.created(target);
+        } else {
+            fileName = baseName + postfixOf(source.getFileName().toString());
+            Path target = dir.resolve(fileName);
+            if (dirs.exists(target) && !fileLinker.isCurrent(target, source)) {
+                Files.deleteIfExists(target);
+                dirs.deleted(target);
+            }
+            if (!dirs.exists(target)) {
+                fileLinker.link(target, source);
+                dirs.created(target);
+            }
+        }
+        State.Entry previous = state.get(baseName);
+        if (previous != null) {
+            if (!previous.fileName().equals(fileName)) {
+                delete(dir.resolve(previous.fileName()), dirs);
+            }
+        } else {
+            // no state yet, drop what an earlier layout linked under the same base name
+            for (String name : dirs.names(dir)) {
+                if (!name.equals(fileName) && baseNameOf(name, false).equals(baseName)) {
+                    delete(dir.resolve(name), dirs);
+                }
+            }
+        }
+        state.put(baseName, new State.Entry(fileName, key));
+        log.debug("render jellyfin {} artwork [{}] from [{}], scaled: {}.",
+            kind, dir.resolve(fileName), source, bytes != null);
+        return true;
+    }
+
+    private static boolean isRendered(State state, Path dir, String baseName, String key,
+                                      DirSnapshot dirs) {
+        State.Entry previous = state.get(baseName);
+        return previous != null && previous.key().equals(key)
+            && dirs.exists(dir.resolve(previous.fileName()));
+    }
+
+    private static void delete(Path stale, DirSnapshot dirs) throws IOException {
+        Files.deleteIfExists(stale);
+        dirs.deleted(stale);
+    }
+
+    private int maxWidth(Kind kind) {
+        return switch (kind) {
+            case POSTER -> syncConfig.getPosterMaxWidth();
+            case FANART -> syncConfig.getFanartMaxWidth();
+            case THUMB -> syncConfig.getThumbMaxWidth();
+        };
+    }
+
+    private String sourceHash(Path source) throws IOException {
+        BasicFileAttributes attributes =
+            Files.readAttributes(source, BasicFileAttributes.class);
+        String cacheKey = source + "|" + attributes.size() + '|'
+            + attributes.lastModifiedTime().toMillis();
+        String hash = sourceHashes.get(cacheKey);
+        if (hash != null) {
+            return hash;
+        }
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        hash = HexFormat.of().formatHex(digest.digest());
+        sourceHashes.put(cacheKey, hash);
+        return hash;
+    }
+
+    /**
+     * Width read from the image header, null if no reader understands the file.
+     */
+    private static Integer widthOf(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                throw new NoSuchFileException(source.toString());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return reader.getWidth(0);
+            } catch (IOException e) {
+                log.debug("read image header fail, link it as is: [{}].", source, e);
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scaled jpeg of source from the cache or scaled right here, null if it can not be
+     * decoded, then the source is linked as is.
+     */
+    private byte[] scaled(Path source, String key, int maxWidth) {
+        synchronized (scaledImages) {
+            byte[] cached = scaledImages.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] bytes;
+        try {
+            bytes = scale(source, maxWidth);
+        } catch (IOException | RuntimeException e) {
+            log.warn("scale image fail, link it as is: [{}].", source, e);
+            return null;
+        }
+        cache(key, bytes);
+        return bytes;
+    }
+
+    private void cache(String key, byte[] bytes) {
+        long maxBytes = (long) syncConfig.getArtworkCacheMb() * 1024 * 1024;
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        synchronized (scaledImages) {
+            byte[] previous = scaledImages.put(key, bytes);
+            scaledImagesBytes += bytes.length - (previous == null ? 0 : previous.length);
+            Iterator<byte[]> eldest = scaledImages.values().iterator();
+            while (scaledImagesBytes > maxBytes && eldest.hasNext()) {
+                scaledImagesBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static byte[] scale(Path source, int maxWidth) throws IOException {
+        BufferedImage image = ImageIO.read(source.toFile());
+        if (image == null) {
+            throw new IOException("unsupported image: " + source);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // halve first, a single bicubic pass over a large factor loses detail
+        while (width / 2 >= maxWidth) {
+            width /= 2;
+            height = Math.max(1, height / 2);
+            image = draw(image, width, height);
+        }
+        if (width != maxWidth) {
+            height = Math.max(1, (int) Math.round((double) height * maxWidth / width));
+            image = draw(image, maxWidth, height);
+        } else if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            image = draw(image, width, height);
+        }
+        return encodeJpeg(image);
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+                RenderingHints.VALUE_RENDER_QUALITY);
+            // jpeg has no alpha, transparent pixels become white
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private synchronized Scheduler scheduler() {
+        int wantedSize = syncConfig.getArtworkWorkers() > 0
+            ? syncConfig.getArtworkWorkers() : Runtime.getRuntime().availableProcessors();
+        if (scheduler == null || schedulerSize != wantedSize) {
+            if (scheduler != null) {
+                scheduler.disposeGracefully().subscribe();
+            }
+            scheduler = Schedulers.newBoundedElastic(wantedSize, QUEUED_TASK_CAP,
+                "jellyfin-artwork");
+            schedulerSize = wantedSize;
+            log.debug("create jellyfin artwork worker pool with {} workers.", wantedSize);
+        }
+        return scheduler;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (scheduler != null) {
+            scheduler.dispose();
+            scheduler = null;
+        }
+    }
+
+    private static String postfixOf(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex < 0 ? SCALED_POSTFIX
+            : fileName.substring(dotIndex).toLowerCase(Locale.ROOT);
+    }
+
+    private static String baseNameOf(String fileName) {
+        return baseNameOf(fileName, true);
+    }
+
+    private static String baseNameOf(String fileName, boolean lowerCase) {
+        if (fileName == null) {
+            return "";
+        }
+        int dotIndex = fileName.lastIndexOf('.');
+        String baseName = dotIndex < 0 ? fileName : fileName.substring(0, dotIndex);
+        return lowerCase ? baseName.toLowerCase(Locale.ROOT) : baseName;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Artwork rendered into one subject dir, base name -> file name and source key.
+     */
+    public static class State {
+        private final Path path;
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+        private boolean dirty;
+
+        private State(Path path) {
+            this.path = path;
+        }
+
+        public record Entry(String fileName, String key) {
+        }
+
+        /**
+         * Load the state of dir, exists false skips reading a file known to be missing.
+         */
+        public static State load(Path dir, boolean exists) {
+            State state = new State(dir.resolve(STATE_FILE_NAME));
+            if (!exists) {
+                return state;
+            }
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(state.path)) {
+                properties.load(in);
+            } catch (NoSuchFileException e) {
+                return state;
+            } catch (IOException e) {
+                log.warn("read artwork state fail, render artwork again, path: [{}].",
+                    state.path, e);
+                return state;
+            }
+            for (String baseName : properties.stringPropertyNames()) {
+                String value = properties.getProperty(baseName);
+                int separator = value.indexOf('|');
+                if (separator > 0) {
+                    state.entries.put(baseName, new Entry(value.substring(0, separator),
+                        value.substring(separator + 1)));
+                }
+            }
+            return state;
+        }
+
+        Entry get(String baseName) {
+            return entries.get(baseName);
+        }
+
+        void put(String baseName, Entry entry) {
+            if (!entry.equals(entries.put(baseName, entry))) {
+                dirty = true;
+            }
+        }
+
+        /**
+         * Write the state if it changed.
+         *
+         * @return true if written
+         */
+        public boolean save() throws IOException {
+            if (!dirty) {
+                return false;
+            }
+            Properties properties = new Properties();
+            entries.forEach((baseName, entry) ->
+                properties.setProperty(baseName, entry.fileName() + '|' + entry.key()));
+            StringWriter writer = new StringWriter();
+            properties.store(writer, null);
+            NfoWriter.writeAtomically(path, writer.toString());
+            dirty = false;
+            return true;
+        }
+    }
+}
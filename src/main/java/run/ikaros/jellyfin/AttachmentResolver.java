@@ -0,0 +1,258 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.attachment.Attachment;
+import run.ikaros.api.core.attachment.AttachmentOperate;
+import run.ikaros.api.core.attachment.AttachmentRelation;
+import run.ikaros.api.core.attachment.AttachmentRelationOperate;
+import run.ikaros.api.core.attachment.AttachmentSearchCondition;
+import run.ikaros.api.core.subject.Episode;
+import run.ikaros.api.core.subject.EpisodeResource;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.store.enums.AttachmentRelationType;
+import run.ikaros.api.wrap.PagingWrap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the attachments a subject media dir depends on with as few round trips
+ * as the host api allows: episode attachments are loaded by listing their parent
+ * dirs page by page, and everything loaded is memoized for the rest of the sync run.
+ * The memo is a bounded lookup cache, each subject keeps what it resolved to itself.
+ */
+@Slf4j
+@Component
+public class AttachmentResolver {
+    private final AttachmentOperate attachmentOperate;
+    private final AttachmentRelationOperate attachmentRelationOperate;
+    private final SyncConfig syncConfig;
+
+    public AttachmentResolver(AttachmentOperate attachmentOperate,
+                              AttachmentRelationOperate attachmentRelationOperate,
+                              SyncConfig syncConfig) {
+        this.attachmentOperate = attachmentOperate;
+        this.attachmentRelationOperate = attachmentRelationOperate;
+        this.syncConfig = syncConfig;
+    }
+
+    /**
+     * New resolve session, its cache lives as long as the session, i.e. one sync run.
+     */
+    public Session newSession() {
+        return new Session(syncConfig.getAttachmentCacheSize(),
+            syncConfig.getAttachmentPageSize());
+    }
+
+    public class Session {
+        private final Map<Long, Attachment> attachments;
+        private final Map<Long, List<Long>> subtitleIds;
+        /**
+         * listed parent dir attachment id -> image attachment ids in the dir.
+         */
+        private final Map<Long, List<Long>> listedImageIds;
+        private final int pageSize;
+
+        private Session(int cacheSize, int pageSize) {
+            this.attachments = lruMap(cacheSize);
+            this.subtitleIds = lruMap(cacheSize);
+            this.listedImageIds = lruMap(cacheSize);
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * Resolve every episode attachment and subtitle of subject, plus the images
+         * found while listing the dirs of the episode files.
+         * The session caches only save lookups, what the subject resolved to is kept
+         * per call, so entries evicted by concurrent resolutions are never missing.
+         *
+         * @param concurrency max requests in flight for this subject
+         */
+        public Mono<SubjectSnapshot> resolve(Subject subject, int concurrency) {
+            Set<Long> attachmentIds = new LinkedHashSet<>();
+            Set<Long> parentIds = new LinkedHashSet<>();
+            for (Episode episode : subject.getEpisodes()) {
+                if (episode.getResources() == null) {
+                    continue;
+                }
+                for (EpisodeResource resource : episode.getResources()) {
+                    attachmentIds.add(resource.getAttachmentId());
+                    if (resource.getParentAttachmentId() != null) {
+                        parentIds.add(resource.getParentAttachmentId());
+                    }
+                }
+            }
+            attachmentIds.remove(null);
+            Resolution resolution = new Resolution();
+
+            return Flux.fromIterable(parentIds)
+                .flatMap(parentId -> listImageIds(parentId, attachmentIds, resolution),
+                    concurrency)
+                .then(Mono.defer(() -> fetchMissing(attachmentIds, resolution, concurrency)))
+                .thenMany(Flux.fromIterable(attachmentIds))
+                .flatMap(attachmentId -> resolveSubtitleIds(attachmentId)
+                    .map(ids -> Map.entry(attachmentId, ids)), concurrency)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .flatMap(subtitleIdMap -> fetchMissing(Stream.concat(
+                            subtitleIdMap.values().stream().flatMap(List::stream),
+                            resolution.imageIds.values().stream().flatMap(List::stream))
+                        .toList(), resolution, concurrency)
+                    .then(Mono.fromSupplier(() ->
+                        toSnapshot(subject, attachmentIds, subtitleIdMap, resolution))));
+        }
+
+        private SubjectSnapshot toSnapshot(Subject subject, Set<Long> attachmentIds,
+                                           Map<Long, List<Long>> subtitleIdMap,
+                                           Resolution resolution) {
+            Map<Long, Attachment> resolved = new HashMap<>();
+            for (Long attachmentId : attachmentIds) {
+                Attachment attachment = resolution.attachments.get(attachmentId);
+                if (attachment != null) {
+                    resolved.put(attachmentId, attachment);
+                }
+            }
+            Map<Long, List<Attachment>> subtitles = new HashMap<>();
+            subtitleIdMap.forEach((attachmentId, ids) -> {
+                List<Attachment> subtitleList = ids.stream()
+                    .map(resolution.attachments::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+                if (!subtitleList.isEmpty()) {
+                    subtitles.put(attachmentId, subtitleList);
+                }
+            });
+            Map<Long, List<Attachment>> images = new HashMap<>();
+            resolution.imageIds.forEach((parentId, ids) -> {
+                List<Attachment> imageList = ids.stream()
+                    .map(resolution.attachments::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+                if (!imageList.isEmpty()) {
+                    images.put(parentId, imageList);
+                }
+            });
+            return new SubjectSnapshot(subject, resolved, subtitles, images);
+        }
+
+        /**
+         * Image ids of parent dir into resolution, the dir is listed unless a previous
+         * resolution of this session listed it.
+         */
+        private Mono<Void> listImageIds(Long parentId, Set<Long> attachmentIds,
+                                        Resolution resolution) {
+            List<Long> cached = listedImageIds.get(parentId);
+            if (cached != null) {
+                resolution.imageIds.put(parentId, cached);
+                return Mono.empty();
+            }
+            List<Long> images = Collections.synchronizedList(new ArrayList<>());
+            return listChildren(parentId, 1, attachmentIds, images, resolution)
+                .then(Mono.fromRunnable(() -> {
+                    List<Long> imageIds = List.copyOf(images);
+                    listedImageIds.put(parentId, imageIds);
+                    resolution.imageIds.put(parentId, imageIds);
+                }));
+        }
+
+        private Mono<Void> listChildren(Long parentId, int page, Set<Long> attachmentIds,
+                                        List<Long> images, Resolution resolution) {
+            AttachmentSearchCondition condition = AttachmentSearchCondition.builder()
+                .page(page)
+                .size(pageSize)
+                .parentId(parentId)
+                .build();
+            return attachmentOperate.listByCondition(condition)
+                .flatMap(pagingWrap -> {
+                    for (Attachment attachment : pagingWrap.getItems()) {
+                        if (attachment == null || attachment.getId() == null) {
+                            continue;
+                        }
+                        put(attachment);
+                        boolean image = ArtworkRenderer.isImage(attachment.getName());
+                        if (image) {
+                            images.add(attachment.getId());
+                        }
+                        if (image || attachmentIds.contains(attachment.getId())) {
+                            resolution.attachments.put(attachment.getId(), attachment);
+                        }
+                    }
+                    if (hasNextPage(pagingWrap, page)) {
+                        return listChildren(parentId, page + 1, attachmentIds, images,
+                            resolution);
+                    }
+                    return Mono.empty();
+                });
+        }
+
+        private boolean hasNextPage(PagingWrap<Attachment> pagingWrap, int page) {
+            return pagingWrap.getItems().size() >= pageSize
+                && (long) page * pageSize < pagingWrap.getTotal();
+        }
+
+        /**
+         * Put the attachments not yet in resolution into it, from the session cache
+         * or fetched one by one.
+         */
+        private Mono<Void> fetchMissing(Iterable<Long> attachmentIds, Resolution resolution,
+                                        int concurrency) {
+            return Flux.fromIterable(attachmentIds)
+                .filter(attachmentId -> !resolution.attachments.containsKey(attachmentId))
+                .distinct()
+                .flatMap(attachmentId -> {
+                    Attachment cached = attachments.get(attachmentId);
+                    return cached != null ? Mono.just(cached)
+                        : attachmentOperate.findById(attachmentId).doOnNext(this::put);
+                }, concurrency)
+                .filter(attachment -> attachment.getId() != null)
+                .doOnNext(attachment -> resolution.attachments.put(attachment.getId(), attachment))
+                .then();
+        }
+
+        private Mono<List<Long>> resolveSubtitleIds(Long attachmentId) {
+            List<Long> cached = subtitleIds.get(attachmentId);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return attachmentRelationOperate.findAllByTypeAndAttachmentId(
+                    AttachmentRelationType.VIDEO_SUBTITLE, attachmentId)
+                .map(AttachmentRelation::getRelationAttachmentId)
+                .collectList()
+                .doOnNext(ids -> subtitleIds.put(attachmentId, ids));
+        }
+
+        private void put(Attachment attachment) {
+            if (attachment != null && attachment.getId() != null) {
+                attachments.put(attachment.getId(), attachment);
+            }
+        }
+    }
+
+    /**
+     * Attachments one subject resolved to, private to its resolve call.
+     */
+    private static class Resolution {
+        private final Map<Long, Attachment> attachments = new ConcurrentHashMap<>();
+        private final Map<Long, List<Long>> imageIds = new ConcurrentHashMap<>();
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+}
@@ -0,0 +1,77 @@
+package run.ikaros.jellyfin;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a bulk build, the first full sync into a fresh media dir.
+ */
+public class BulkBuildProgress {
+    private final long totalSubjects;
+    private final long resumedSubjects;
+    private final Instant startTime = Instant.now();
+    private final AtomicLong doneSubjects = new AtomicLong();
+
+    /**
+     * @param totalSubjects   all subjects to go through
+     * @param resumedSubjects subjects finished by a previous, interrupted, build
+     */
+    public BulkBuildProgress(long totalSubjects, long resumedSubjects) {
+        this.totalSubjects = totalSubjects;
+        this.resumedSubjects = Math.min(resumedSubjects, totalSubjects);
+    }
+
+    /**
+     * Mark one subject done.
+     *
+     * @return true when this subject crossed another 5% of the build
+     */
+    public boolean subjectDone() {
+        long done = doneSubjects.incrementAndGet();
+        long step = Math.max(1, totalSubjects / 20);
+        return done % step == 0;
+    }
+
+    public long getTotalSubjects() {
+        return totalSubjects;
+    }
+
+    public long getDoneSubjects() {
+        return Math.min(totalSubjects, doneSubjects.get());
+    }
+
+    public long getResumedSubjects() {
+        return resumedSubjects;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public double getPercent() {
+        return totalSubjects == 0 ? 100 : getDoneSubjects() * 100.0 / totalSubjects;
+    }
+
+    public double getSubjectsPerSecond() {
+        long millis = Duration.between(startTime, Instant.now()).toMillis();
+        return millis == 0 ? 0 : getDoneSubjects() * 1000.0 / millis;
+    }
+
+    /**
+     * Expected time to completion at the rate so far, null before the first subject.
+     */
+    public Duration getEta() {
+        double rate = getSubjectsPerSecond();
+        if (rate <= 0) {
+            return null;
+        }
+        return Duration.ofMillis((long) ((totalSubjects - getDoneSubjects()) / rate * 1000));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d subjects (%.1f%%), %.1f subjects/s, eta %s",
+            getDoneSubjects(), totalSubjects, getPercent(), getSubjectsPerSecond(), getEta());
+    }
+}
@@ -0,0 +1,94 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry names of the dirs touched during one sync run, each dir is listed once with a
+ * single {@link DirectoryStream} and existence checks are answered from memory.
+ * Callers report what they create or delete so the snapshot stays current for the run.
+ */
+@Slf4j
+public class DirSnapshot {
+    private final Map<Path, Set<String>> listings = new ConcurrentHashMap<>();
+
+    /**
+     * Whether path existed when its parent dir was listed, or was created since.
+     */
+    public boolean exists(Path path) {
+        Path dir = path.getParent();
+        Path name = path.getFileName();
+        return dir != null && name != null && listing(dir).contains(name.toString());
+    }
+
+    /**
+     * Names of the entries of dir.
+     */
+    public Set<String> names(Path dir) {
+        return Set.copyOf(listing(dir));
+    }
+
+    public void created(Path path) {
+        Path dir = path.getParent();
+        if (dir != null && path.getFileName() != null) {
+            listing(dir).add(path.getFileName().toString());
+        }
+    }
+
+    /**
+     * Record a new dir, known to be empty, so it is not listed later.
+     */
+    public void createdDir(Path dir) {
+        created(dir);
+        listings.putIfAbsent(dir, ConcurrentHashMap.newKeySet());
+    }
+
+    public void deleted(Path path) {
+        Path dir = path.getParent();
+        if (dir != null && path.getFileName() != null) {
+            listing(dir).remove(path.getFileName().toString());
+        }
+        listings.remove(path);
+    }
+
+    /**
+     * Record a dir renamed from source to target, its entries move along.
+     */
+    public void moved(Path source, Path target) {
+        Set<String> entries = listings.get(source);
+        deleted(source);
+        created(target);
+        if (entries != null) {
+            listings.put(target, entries);
+        } else {
+            listings.remove(target);
+        }
+    }
+
+    private Set<String> listing(Path dir) {
+        return listings.computeIfAbsent(dir, DirSnapshot::list);
+    }
+
+    private static Set<String> list(Path dir) {
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            // missing dir, nothing in it
+        } catch (IOException e) {
+            log.warn("list dir fail, treat it as empty, dir: [{}].", dir, e);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,71 @@
+package run.ikaros.jellyfin;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subject dirs and file names a full sync expects in the media dir, collected while syncing.
+ * Protected dirs belong to subjects that could not be resolved or completely generated this
+ * run and are left as is.
+ */
+public class ExpectedMediaTree {
+    private final Map<Long, Path> subjectDirs = new ConcurrentHashMap<>();
+    private final Map<Path, Set<String>> fileNames = new ConcurrentHashMap<>();
+    private final Set<Long> protectedSubjectIds = ConcurrentHashMap.newKeySet();
+    private final Set<Path> protectedDirs = ConcurrentHashMap.newKeySet();
+
+    public void expect(Long subjectId, Path subjectDir, Set<String> names) {
+        Path dir = subjectDir.toAbsolutePath().normalize();
+        subjectDirs.put(subjectId, dir);
+        fileNames.put(dir, names);
+    }
+
+    public void protect(Long subjectId, Path subjectDir) {
+        protectedSubjectIds.add(subjectId);
+        if (subjectDir != null) {
+            protectedDirs.add(subjectDir.toAbsolutePath().normalize());
+        }
+    }
+
+    public boolean isEmpty() {
+        return subjectDirs.isEmpty() && protectedSubjectIds.isEmpty();
+    }
+
+    /**
+     * Whether the manifest entry of subject is still needed.
+     */
+    public boolean isKnown(Long subjectId) {
+        return subjectDirs.containsKey(subjectId) || protectedSubjectIds.contains(subjectId);
+    }
+
+    public boolean isExpectedSubject(Long subjectId) {
+        return subjectDirs.containsKey(subjectId);
+    }
+
+    public boolean isProtectedSubject(Long subjectId) {
+        return protectedSubjectIds.contains(subjectId);
+    }
+
+    public boolean isExpectedDir(Path dir) {
+        return fileNames.containsKey(dir);
+    }
+
+    public boolean isProtectedDir(Path dir) {
+        return protectedDirs.contains(dir);
+    }
+
+    public boolean isExpectedFile(Path file) {
+        Set<String> names = fileNames.get(file.getParent());
+        if (names == null) {
+            return false;
+        }
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") && name.endsWith(LinkStrategy.Copy.PART_SUFFIX)) {
+            // partial copy, resumed next run
+            name = name.substring(1, name.length() - LinkStrategy.Copy.PART_SUFFIX.length());
+        }
+        return names.contains(name) || name.startsWith(MediaDirInit.POSTER_FILE_NAME + ".");
+    }
+}
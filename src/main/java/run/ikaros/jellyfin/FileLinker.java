@@ -0,0 +1,183 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Links source files into the media dir with the first {@link LinkStrategy} that works
+ * between the source and target filesystem, in the order of {@link SyncConfig#getLinkStrategies()}.
+ * The choice is made once per filesystem pair and reused, so a strategy that can not work,
+ * like a hard link across devices, is not retried for every file. Only such an
+ * {@link LinkStrategy.UnsupportedLinkException} moves on to the next strategy, a failure of
+ * the single file is rethrown and leaves the choice alone. A strategy found unsupported
+ * is not probed again for the filesystem pair, e.g. reflink spawns cp once per pair.
+ */
+@Slf4j
+@Component
+public class FileLinker {
+    private static final int MAX_CACHED_DIRS = 100_000;
+    private static final List<LinkStrategy> STRATEGIES = List.of(
+        new LinkStrategy.HardLink(), new LinkStrategy.Reflink(),
+        new LinkStrategy.SymbolicLink(), new LinkStrategy.Copy());
+    private final SyncConfig syncConfig;
+    private final Map<Path, Object> dirFileStores = new ConcurrentHashMap<>();
+    private final Map<String, LinkStrategy> chosen = new ConcurrentHashMap<>();
+    /**
+     * Filesystem pair -> names of the strategies unsupported between them.
+     */
+    private final Map<String, Set<String>> unsupported = new ConcurrentHashMap<>();
+    /**
+     * All strategies, replaced by tests.
+     */
+    List<LinkStrategy> strategies = STRATEGIES;
+
+    public FileLinker(SyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+    }
+
+    /**
+     * Link existing at link.
+     *
+     * @return the strategy used
+     */
+    public LinkStrategy link(Path link, Path existing) throws IOException {
+        String storePair = fileStoreOf(existing.getParent()) + "->"
+            + fileStoreOf(link.getParent()) + ":" + syncConfig.getLinkStrategies();
+        LinkStrategy strategy = chosen.get(storePair);
+        if (strategy != null) {
+            try {
+                strategy.link(link, existing);
+                return strategy;
+            } catch (LinkStrategy.UnsupportedLinkException | UnsupportedOperationException e) {
+                log.debug("link strategy [{}] fail, choose again, link={}, existing={}",
+                    strategy.name(), link, existing, e);
+                chosen.remove(storePair, strategy);
+                unsupported(storePair).add(strategy.name());
+            }
+        }
+        return choose(storePair, link, existing);
+    }
+
+    private LinkStrategy choose(String storePair, Path link, Path existing) throws IOException {
+        IOException failure = null;
+        Set<String> unsupportedNames = unsupported(storePair);
+        for (LinkStrategy strategy : enabledStrategies()) {
+            if (unsupportedNames.contains(strategy.name())) {
+                continue;
+            }
+            try {
+                strategy.link(link, existing);
+            } catch (LinkStrategy.UnsupportedLinkException | UnsupportedOperationException e) {
+                log.debug("link strategy [{}] not usable, link={}, existing={}",
+                    strategy.name(), link, existing, e);
+                unsupportedNames.add(strategy.name());
+                IOException cause = e instanceof IOException ioException
+                    ? ioException : new IOException(e);
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+                continue;
+            }
+            if (chosen.put(storePair, strategy) != strategy) {
+                log.info("link media files with [{}] for filesystems [{}].",
+                    strategy.name(), storePair);
+            }
+            return strategy;
+        }
+        throw failure != null ? failure
+            : new IOException("no usable link strategy, check linkStrategies config");
+    }
+
+    private Set<String> unsupported(String storePair) {
+        return unsupported.computeIfAbsent(storePair, key -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Whether link still shows the current content of existing: a symbolic link to it,
+     * a hard link to the same file, or a copy with its size and modification time.
+     */
+    public boolean isCurrent(Path link, Path existing) {
+        try {
+            if (Files.isSymbolicLink(link)) {
+                return Files.readSymbolicLink(link).equals(existing.toAbsolutePath());
+            }
+            BasicFileAttributes linkAttributes =
+                Files.readAttributes(link, BasicFileAttributes.class);
+            BasicFileAttributes existingAttributes =
+                Files.readAttributes(existing, BasicFileAttributes.class);
+            if (linkAttributes.fileKey() != null
+                && linkAttributes.fileKey().equals(existingAttributes.fileKey())) {
+                return true;
+            }
+            return linkAttributes.size() == existingAttributes.size()
+                && linkAttributes.lastModifiedTime().toMillis()
+                == existingAttributes.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether strategies is a comma separated list of known strategy names, at least one.
+     */
+    static boolean isValidStrategies(String strategies) {
+        String[] names = strategies.split(",");
+        for (String name : names) {
+            String trimmed = name.trim().toLowerCase(Locale.ROOT);
+            if (STRATEGIES.stream().noneMatch(strategy -> strategy.name().equals(trimmed))) {
+                return false;
+            }
+        }
+        return names.length > 0;
+    }
+
+    private List<LinkStrategy> enabledStrategies() {
+        List<LinkStrategy> enabled = new ArrayList<>();
+        for (String name : syncConfig.getLinkStrategies().split(",")) {
+            String trimmed = name.trim().toLowerCase(Locale.ROOT);
+            strategies.stream()
+                .filter(strategy -> strategy.name().equals(trimmed))
+                .findFirst()
+                .ifPresent(enabled::add);
+        }
+        return enabled;
+    }
+
+    /**
+     * Device of dir, cached per dir so one stat is paid per dir per process.
+     */
+    private Object fileStoreOf(Path dir) {
+        if (dir == null) {
+            return "";
+        }
+        if (dirFileStores.size() > MAX_CACHED_DIRS) {
+            dirFileStores.clear();
+        }
+        return dirFileStores.computeIfAbsent(dir, key -> {
+            try {
+                return Files.getAttribute(key, "unix:dev");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                try {
+                    return Files.getFileStore(key).name();
+                } catch (IOException ex) {
+                    return key.getRoot() == null ? "" : key.getRoot().toString();
+                }
+            } catch (IOException e) {
+                return key.getRoot() == null ? "" : key.getRoot().toString();
+            }
+        });
+    }
+}
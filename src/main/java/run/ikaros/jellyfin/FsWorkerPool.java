@@ -0,0 +1,64 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Threads doing the media dir filesystem work: dirs, links and nfo files.
+ * Sized by {@link SyncConfig#getIoWorkers()}, or by storage type when that is 0:
+ * SSDs gain from parallel IO, spinning disks mostly seek and get a couple of workers.
+ */
+@Slf4j
+@Component
+public class FsWorkerPool implements DisposableBean {
+    private static final int QUEUED_TASK_CAP = 100_000;
+    private final SyncConfig syncConfig;
+    private Scheduler scheduler;
+    private int size;
+
+    public FsWorkerPool(SyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+    }
+
+    /**
+     * Scheduler for filesystem work, recreated when the configured size changed.
+     */
+    public synchronized Scheduler scheduler() {
+        int wantedSize = wantedSize();
+        if (scheduler == null || size != wantedSize) {
+            if (scheduler != null) {
+                scheduler.disposeGracefully().subscribe();
+            }
+            scheduler = Schedulers.newBoundedElastic(wantedSize, QUEUED_TASK_CAP,
+                "jellyfin-fs");
+            size = wantedSize;
+            log.debug("create jellyfin fs worker pool with {} workers.", size);
+        }
+        return scheduler;
+    }
+
+    public int size() {
+        return wantedSize();
+    }
+
+    private int wantedSize() {
+        if (syncConfig.getIoWorkers() > 0) {
+            return syncConfig.getIoWorkers();
+        }
+        return switch (syncConfig.getStorageType()) {
+            case HDD -> 2;
+            case SSD -> Math.max(4, Runtime.getRuntime().availableProcessors());
+        };
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (scheduler != null) {
+            scheduler.dispose();
+            scheduler = null;
+        }
+    }
+}
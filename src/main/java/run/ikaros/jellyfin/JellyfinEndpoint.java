@@ -0,0 +1,148 @@
+package run.ikaros.jellyfin;
+
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import org.springdoc.webflux.core.fn.SpringdocRouteBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.custom.GroupVersionKind;
+import run.ikaros.api.endpoint.CustomEndpoint;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import static org.springdoc.core.fn.builders.parameter.Builder.parameterBuilder;
+import static org.springdoc.core.fn.builders.requestbody.Builder.requestBodyBuilder;
+
+@Component
+public class JellyfinEndpoint implements CustomEndpoint {
+    private final SyncMetrics syncMetrics;
+    private final SyncJobManager syncJobManager;
+
+    public JellyfinEndpoint(SyncMetrics syncMetrics, SyncJobManager syncJobManager) {
+        this.syncMetrics = syncMetrics;
+        this.syncJobManager = syncJobManager;
+    }
+
+    @Override
+    public RouterFunction<ServerResponse> endpoint() {
+        var tag = "v1alpha1/Jellyfin";
+        return SpringdocRouteBuilder.route()
+            .GET("/jellyfin/sync/report/last", this::getLastSyncReport,
+                builder -> builder.operationId("GetLastSyncReport")
+                    .tag(tag)
+                    .description("Get the report of the last finished media dir sync."))
+            .GET("/jellyfin/sync/bulk-build/progress", this::getBulkBuildProgress,
+                builder -> builder.operationId("GetBulkBuildProgress")
+                    .tag(tag)
+                    .description("Get progress and expected time to completion "
+                        + "of the running or last media dir bulk build."))
+            .POST("/jellyfin/sync/jobs/full", this::submitFullSync,
+                builder -> builder.operationId("SubmitFullSync")
+                    .tag(tag)
+                    .description("Queue a full media dir sync, "
+                        + "joins the queued one if there is any.")
+                    .parameter(dryRunParameter()))
+            .POST("/jellyfin/sync/jobs/subjects", this::submitSubjectsSync,
+                builder -> builder.operationId("SubmitSubjectsSync")
+                    .tag(tag)
+                    .description("Queue a media dir sync of the given subjects, "
+                        + "joins the queued one if there is any.")
+                    .parameter(dryRunParameter())
+                    .requestBody(requestBodyBuilder()
+                        .required(true)
+                        .description("Subject ids.")
+                        .implementation(Long[].class)))
+            .GET("/jellyfin/sync/jobs/{id}", this::getSyncJob,
+                builder -> builder.operationId("GetSyncJob")
+                    .tag(tag)
+                    .description("Get state and report of a sync job.")
+                    .parameter(jobIdParameter()))
+            .GET("/jellyfin/sync/jobs/{id}/events", this::streamSyncJobEvents,
+                builder -> builder.operationId("StreamSyncJobEvents")
+                    .tag(tag)
+                    .description("Stream state changes and progress of a sync job "
+                        + "as server sent events, ends when the job is done.")
+                    .parameter(jobIdParameter()))
+            .build();
+    }
+
+    private static org.springdoc.core.fn.builders.parameter.Builder dryRunParameter() {
+        return parameterBuilder()
+            .name("dryRun")
+            .in(ParameterIn.QUERY)
+            .required(false)
+            .description("Only report what would change, default false.")
+            .implementation(Boolean.class);
+    }
+
+    private static org.springdoc.core.fn.builders.parameter.Builder jobIdParameter() {
+        return parameterBuilder()
+            .name("id")
+            .in(ParameterIn.PATH)
+            .required(true)
+            .description("Sync job id.")
+            .implementation(String.class);
+    }
+
+    private Mono<ServerResponse> submitFullSync(ServerRequest request) {
+        SyncJob job = syncJobManager.submit(null, isDryRun(request));
+        return ServerResponse.accepted().bodyValue(job);
+    }
+
+    private Mono<ServerResponse> submitSubjectsSync(ServerRequest request) {
+        return request.bodyToMono(new ParameterizedTypeReference<List<Long>>() {
+            })
+            .map(subjectIds -> subjectIds.stream().filter(Objects::nonNull).toList())
+            .filter(subjectIds -> !subjectIds.isEmpty())
+            .flatMap(subjectIds -> ServerResponse.accepted()
+                .bodyValue(syncJobManager.submit(subjectIds, isDryRun(request))))
+            .switchIfEmpty(Mono.defer(() -> ServerResponse.badRequest()
+                .bodyValue("request body must be a non empty array of subject ids.")));
+    }
+
+    private static boolean isDryRun(ServerRequest request) {
+        return request.queryParam("dryRun").map(Boolean::parseBoolean).orElse(false);
+    }
+
+    private Mono<ServerResponse> getSyncJob(ServerRequest request) {
+        return syncJobManager.get(request.pathVariable("id"))
+            .map(job -> ServerResponse.ok().bodyValue(job))
+            .orElseGet(() -> ServerResponse.notFound().build());
+    }
+
+    private Mono<ServerResponse> streamSyncJobEvents(ServerRequest request) {
+        return syncJobManager.get(request.pathVariable("id"))
+            .map(job -> ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(job.events().map(event -> ServerSentEvent.builder(event.job())
+                        .event(event.name().toLowerCase(Locale.ROOT))
+                        .build()),
+                    new ParameterizedTypeReference<ServerSentEvent<SyncJob>>() {
+                    }))
+            .orElseGet(() -> ServerResponse.notFound().build());
+    }
+
+    private Mono<ServerResponse> getLastSyncReport(ServerRequest request) {
+        return syncMetrics.lastReport()
+            .map(report -> ServerResponse.ok().bodyValue(report))
+            .orElseGet(() -> ServerResponse.notFound().build());
+    }
+
+    private Mono<ServerResponse> getBulkBuildProgress(ServerRequest request) {
+        return syncMetrics.bulkBuildProgress()
+            .map(progress -> ServerResponse.ok().bodyValue(progress))
+            .orElseGet(() -> ServerResponse.notFound().build());
+    }
+
+    @Override
+    public GroupVersionKind groupVersionKind() {
+        return new GroupVersionKind("jellyfin.plugin.ikaros.run", "v1alpha1", "Jellyfin");
+    }
+}
@@ -0,0 +1,198 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tells the configured Jellyfin servers which subject dirs a sync created, changed or
+ * removed through {@code POST /Library/Media/Updated}, so they rescan only those instead
+ * of the whole library. Updates are coalesced for a short delay, sent in batches with a
+ * pause between them and retried with backoff on IO errors, 429 and 5xx responses.
+ */
+@Slf4j
+@Component
+public class JellyfinNotifier implements DisposableBean {
+    private static final String MEDIA_UPDATED_PATH = "/Library/Media/Updated";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration FIRST_RETRY_BACKOFF = Duration.ofSeconds(1);
+
+    private final SyncConfig syncConfig;
+    private final HttpClient httpClient;
+    /**
+     * Updates not sent yet, guarded by itself.
+     */
+    private final Map<Path, SyncReport.DirUpdate> pending = new LinkedHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private volatile Disposable flush = Disposables.disposed();
+    private volatile boolean destroyed;
+
+    public JellyfinNotifier(SyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+    }
+
+    /**
+     * Queue updated dirs, a dir queued again before it was sent is sent once.
+     */
+    public void notifyUpdated(Map<Path, SyncReport.DirUpdate> updates) {
+        if (updates.isEmpty() || syncConfig.getJellyfinServers().isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            updates.forEach((dir, update) ->
+                pending.merge(dir, update, SyncReport.DirUpdate::merge));
+        }
+        startFlush();
+    }
+
+    private void startFlush() {
+        if (destroyed || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        flush = Mono.delay(Duration.ofSeconds(syncConfig.getNotifyDelaySeconds()))
+            .then(Mono.defer(this::flushBatches))
+            .doFinally(signalType -> {
+                flushing.set(false);
+                // queued after the last batch was taken
+                if (SignalType.ON_COMPLETE.equals(signalType) && hasPending()) {
+                    startFlush();
+                }
+            })
+            .subscribe(null, e -> log.warn("flush jellyfin media updates fail.", e));
+    }
+
+    private Mono<Void> flushBatches() {
+        List<Map.Entry<Path, SyncReport.DirUpdate>> batch = takeBatch();
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(syncConfig.getJellyfinServers())
+            .flatMap(server -> send(server, batch))
+            .then(Mono.delay(Duration.ofMillis(syncConfig.getNotifyIntervalMillis())))
+            .then(Mono.defer(this::flushBatches));
+    }
+
+    private List<Map.Entry<Path, SyncReport.DirUpdate>> takeBatch() {
+        int batchSize = Math.max(1, syncConfig.getNotifyBatchSize());
+        List<Map.Entry<Path, SyncReport.DirUpdate>> batch = new ArrayList<>();
+        synchronized (pending) {
+            Iterator<Map.Entry<Path, SyncReport.DirUpdate>> iterator =
+                pending.entrySet().iterator();
+            while (batch.size() < batchSize && iterator.hasNext()) {
+                Map.Entry<Path, SyncReport.DirUpdate> entry = iterator.next();
+                batch.add(Map.entry(entry.getKey(), entry.getValue()));
+                iterator.remove();
+            }
+        }
+        return batch;
+    }
+
+    private boolean hasPending() {
+        synchronized (pending) {
+            return !pending.isEmpty();
+        }
+    }
+
+    private Mono<Void> send(JellyfinServer server,
+                            List<Map.Entry<Path, SyncReport.DirUpdate>> batch) {
+        String url = server.getUrl().replaceAll("/+$", "") + MEDIA_UPDATED_PATH;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/json")
+            .header("X-Emby-Token", server.getApiKey() == null ? "" : server.getApiKey())
+            .POST(HttpRequest.BodyPublishers.ofString(body(server, batch)))
+            .build();
+        return Mono.fromFuture(() ->
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()))
+            .flatMap(response -> {
+                int status = response.statusCode();
+                if (status >= 200 && status < 300) {
+                    return Mono.just(response);
+                }
+                if (status == 429 || status >= 500) {
+                    return Mono.error(new IOException("jellyfin responded " + status));
+                }
+                return Mono.error(new IllegalStateException("jellyfin responded " + status
+                    + ", check the server url and api key"));
+            })
+            .retryWhen(Retry.backoff(syncConfig.getNotifyMaxRetries(), FIRST_RETRY_BACKOFF)
+                .filter(e -> e instanceof IOException || e.getCause() instanceof IOException))
+            .doOnNext(response -> log.debug("notify jellyfin server [{}] of {} updated dirs.",
+                server.getUrl(), batch.size()))
+            .onErrorResume(e -> {
+                // its scheduled library scan picks the dirs up later
+                log.warn("notify jellyfin server [{}] of {} updated dirs fail.",
+                    server.getUrl(), batch.size(), e);
+                return Mono.empty();
+            })
+            .then();
+    }
+
+    private static String body(JellyfinServer server,
+                               List<Map.Entry<Path, SyncReport.DirUpdate>> batch) {
+        StringBuilder sb = new StringBuilder("{\"Updates\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"Path\":");
+            jsonString(sb, server.remotePath(batch.get(i).getKey()));
+            sb.append(",\"UpdateType\":");
+            jsonString(sb, batch.get(i).getValue().getUpdateType());
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void jsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        flush.dispose();
+    }
+}
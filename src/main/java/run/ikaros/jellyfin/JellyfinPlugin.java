@@ -6,6 +6,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
+import reactor.core.Disposables;
 import run.ikaros.api.plugin.BasePlugin;
 
 import lombok.extern.slf4j.Slf4j;
@@ -30,15 +31,20 @@ public class JellyfinPlugin extends BasePlugin implements ApplicationContextAwar
     @Override
     public void start() {
         MediaDirInit mediaDirInit = applicationContext.getBean(MediaDirInit.class);
-        mediaDirDisposable = mediaDirInit.generate();
-        log.info("start generate jellyfin media subject dirs of 15 minutes ...");
+        // generate once the stored config is applied, not with the defaults
+        Disposable.Swap generation = Disposables.swap();
+        Disposable loading = applicationContext.getBean(SyncConfigListener.class).load()
+            .doOnSuccess(loaded -> generation.update(mediaDirInit.generate()))
+            .subscribe();
+        mediaDirDisposable = Disposables.composite(loading, generation);
+        log.info("start generate jellyfin media subject dirs ...");
     }
 
     @Override
     public void stop() {
         if(mediaDirDisposable != null) {
             mediaDirDisposable.dispose();
-            log.info("stop generate jellyfin media subject dirs of 15 minutes ...");
+            log.info("stop generate jellyfin media subject dirs ...");
         }
     }
 }
@@ -0,0 +1,44 @@
+package run.ikaros.jellyfin;
+
+import lombok.Data;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+
+/**
+ * A Jellyfin server told about the media dirs a sync has updated, see {@link JellyfinNotifier}.
+ */
+@Data
+@Accessors(chain = true)
+public class JellyfinServer {
+    /**
+     * Base url, e.g. {@code http://127.0.0.1:8096}.
+     */
+    private String url;
+    /**
+     * Kept out of toString, the applied config is logged.
+     */
+    @ToString.Exclude
+    private String apiKey;
+    /**
+     * {@code localPrefix=remotePrefix}, for a Jellyfin that sees the media dirs under
+     * another path, e.g. in another container. Blank means the same paths.
+     */
+    private String pathMapping = "";
+
+    /**
+     * Path of dir as seen by the server.
+     */
+    public String remotePath(Path dir) {
+        String path = dir.toString();
+        int separator = pathMapping == null ? -1 : pathMapping.indexOf('=');
+        if (separator <= 0) {
+            return path;
+        }
+        String localPrefix = pathMapping.substring(0, separator).trim();
+        String remotePrefix = pathMapping.substring(separator + 1).trim();
+        return path.startsWith(localPrefix)
+            ? remotePrefix + path.substring(localPrefix.length()) : path;
+    }
+}
@@ -0,0 +1,221 @@
+package run.ikaros.jellyfin;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A way to make a source file appear in the media dir, see {@link FileLinker} for how
+ * one is chosen per source and target filesystem.
+ */
+public interface LinkStrategy {
+    /**
+     * Name used in config and logs.
+     */
+    String name();
+
+    /**
+     * Create link pointing at, or holding the content of, existing.
+     *
+     * @throws FileAlreadyExistsException if link exists
+     * @throws UnsupportedLinkException   if this strategy can not link between the two
+     *                                    filesystems at all
+     * @throws IOException                if linking this file failed
+     */
+    void link(Path link, Path existing) throws IOException;
+
+    /**
+     * The strategy can not link between the source and target filesystem, as opposed to
+     * a failure of the single file like a missing source, a denied permission or a full disk.
+     */
+    class UnsupportedLinkException extends IOException {
+        public UnsupportedLinkException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+        /**
+         * Whether an error message or reason means the operation is not possible between
+         * the filesystems, EXDEV or EOPNOTSUPP.
+         */
+        static boolean isUnsupported(String reason) {
+            if (reason == null) {
+                return false;
+            }
+            String lowerCase = reason.toLowerCase(Locale.ROOT);
+            return lowerCase.contains("cross-device") || lowerCase.contains("not supported");
+        }
+    }
+
+    class HardLink implements LinkStrategy {
+        @Override
+        public String name() {
+            return "hardlink";
+        }
+
+        @Override
+        public void link(Path link, Path existing) throws IOException {
+            try {
+                Files.createLink(link, existing);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (FileSystemException e) {
+                if (UnsupportedLinkException.isUnsupported(e.getReason())) {
+                    throw new UnsupportedLinkException("hard link not possible: " + link, e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Copy on write clone of the source, for btrfs, xfs and the like. The JDK has no FICLONE,
+     * so this runs {@code cp --reflink=always} which fails on filesystems without clones.
+     * A host without a cp that knows the option can not reflink at all, like one whose
+     * filesystems have no clones.
+     * The clone keeps the modification time of the source, see {@link FileLinker#isCurrent}.
+     */
+    class Reflink implements LinkStrategy {
+        private final String command;
+        private final long timeoutSeconds;
+
+        public Reflink() {
+            this("cp", 60);
+        }
+
+        Reflink(String command, long timeoutSeconds) {
+            this.command = command;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        @Override
+        public String name() {
+            return "reflink";
+        }
+
+        @Override
+        public void link(Path link, Path existing) throws IOException {
+            if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                throw new FileAlreadyExistsException(link.toString());
+            }
+            // the output goes to a file, reading a pipe would block past the timeout
+            Path output = Files.createTempFile("jellyfin-reflink", ".log");
+            Process process;
+            try {
+                process = new ProcessBuilder(command, "--reflink=always",
+                    "--preserve=timestamps", "--",
+                    existing.toString(), link.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output.toFile())
+                    .start();
+            } catch (IOException e) {
+                Files.deleteIfExists(output);
+                throw new UnsupportedLinkException("can not run " + command, e);
+            }
+            try {
+                if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    Files.deleteIfExists(link);
+                    throw new IOException("reflink timed out: " + link);
+                }
+                if (process.exitValue() != 0) {
+                    String message = Files.readString(output).trim();
+                    Files.deleteIfExists(link);
+                    if (UnsupportedLinkException.isUnsupported(message)
+                        || isUnknownOption(message)) {
+                        throw new UnsupportedLinkException("reflink not possible: " + message,
+                            null);
+                    }
+                    throw new IOException("reflink fail: " + message);
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new IOException("reflink interrupted: " + link, e);
+            } finally {
+                Files.deleteIfExists(output);
+            }
+        }
+
+        /**
+         * Whether cp rejected an option, a cp other than GNU like busybox or BSD.
+         */
+        private static boolean isUnknownOption(String message) {
+            String lowerCase = message.toLowerCase(Locale.ROOT);
+            return lowerCase.contains("unrecognized option")
+                || lowerCase.contains("invalid option")
+                || lowerCase.contains("illegal option")
+                || lowerCase.contains("unknown option");
+        }
+    }
+
+    class SymbolicLink implements LinkStrategy {
+        @Override
+        public String name() {
+            return "symlink";
+        }
+
+        @Override
+        public void link(Path link, Path existing) throws IOException {
+            Files.createSymbolicLink(link, existing.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Copy through a {@code .<name>.part} file next to the link, renamed into place once its
+     * size matches the source. An interrupted copy is resumed from the part file's size.
+     * The copy keeps the modification time of the source, see {@link FileLinker#isCurrent}.
+     */
+    class Copy implements LinkStrategy {
+        static final String PART_SUFFIX = ".part";
+
+        @Override
+        public String name() {
+            return "copy";
+        }
+
+        static Path partPath(Path link) {
+            return link.resolveSibling("." + link.getFileName() + PART_SUFFIX);
+        }
+
+        @Override
+        public void link(Path link, Path existing) throws IOException {
+            if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                throw new FileAlreadyExistsException(link.toString());
+            }
+            Path partPath = partPath(link);
+            try (FileChannel source = FileChannel.open(existing, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(partPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE)) {
+                long size = source.size();
+                long position = target.size();
+                if (position > size) {
+                    target.truncate(0);
+                    position = 0;
+                }
+                while (position < size) {
+                    long transferred = source.transferTo(position, size - position,
+                        target.position(position));
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+                target.force(false);
+                if (target.size() != size) {
+                    throw new IOException("copy size mismatch, expected " + size
+                        + " bytes but got " + target.size() + ": " + link);
+                }
+            }
+            Files.setLastModifiedTime(partPath, Files.getLastModifiedTime(existing));
+            Files.move(partPath, link, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -1,164 +1,999 @@
 package run.ikaros.jellyfin;
 
+import org.springframework.scheduling.support.CronExpression;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Signal;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 import run.ikaros.api.core.attachment.*;
 import run.ikaros.api.core.subject.*;
 import run.ikaros.api.infra.properties.IkarosProperties;
 import run.ikaros.api.infra.utils.FileUtils;
-import run.ikaros.api.store.enums.AttachmentRelationType;
 import run.ikaros.api.store.enums.EpisodeGroup;
-import run.ikaros.api.store.enums.SubjectSyncPlatform;
 import run.ikaros.api.store.enums.SubjectType;
-import run.ikaros.api.wrap.PagingWrap;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Component
 public class MediaDirInit {
-    private static final String MEDIA_DIR_NAME = "jellyfin";
+    private static final String BULK_BUILD_ATTRIBUTE = "bulkBuild";
+    static final String POSTER_FILE_NAME = "poster";
+    /**
+     * Hidden file holding the id of the subject a dir was generated for.
+     */
+    static final String SUBJECT_ID_FILE_NAME = ".subject-id";
+    /**
+     * Backoff of an incomplete subject whose inputs did not change, doubled per run.
+     */
+    private static final Duration INCOMPLETE_RETRY_MIN = Duration.ofMinutes(15);
+    private static final Duration INCOMPLETE_RETRY_MAX = Duration.ofDays(1);
     private final SubjectOperate subjectOperate;
-    private final AttachmentOperate attachmentOperate;
     private final AttachmentReferenceOperate attachmentReferenceOperate;
-    private final AttachmentRelationOperate attachmentRelationOperate;
+    private final AttachmentResolver attachmentResolver;
     private final IkarosProperties ikarosProperties;
+    private final SyncConfig syncConfig;
+    private final SubjectScanner subjectScanner;
+    private final SubjectChangeDispatcher subjectChangeDispatcher;
+    private final SubjectMetaWatcher subjectMetaWatcher;
+    private final SyncMetrics syncMetrics;
+    private final FsWorkerPool fsWorkerPool;
+    private final OrphanReconciler orphanReconciler;
+    private final FileLinker fileLinker;
+    private final ArtworkRenderer artworkRenderer;
+    private final JellyfinNotifier jellyfinNotifier;
     private final String workDirAbsolutePath;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Map<Path, MediaTarget> mediaTargets = new ConcurrentHashMap<>();
+    private Disposable.Swap fullSyncSchedule;
+    private Disposable.Swap metaWatch;
+    private String fullSyncScheduleKey;
+    private int metaWatchPollSeconds;
 
-    public MediaDirInit(SubjectOperate subjectOperate, AttachmentOperate attachmentOperate,
+    public MediaDirInit(SubjectOperate subjectOperate,
                         AttachmentReferenceOperate attachmentReferenceOperate,
-                        AttachmentRelationOperate attachmentRelationOperate,
-                        IkarosProperties ikarosProperties) {
+                        AttachmentResolver attachmentResolver,
+                        IkarosProperties ikarosProperties, SyncConfig syncConfig,
+                        SubjectScanner subjectScanner,
+                        SubjectChangeDispatcher subjectChangeDispatcher,
+                        SubjectMetaWatcher subjectMetaWatcher,
+                        SyncMetrics syncMetrics, FsWorkerPool fsWorkerPool,
+                        OrphanReconciler orphanReconciler, FileLinker fileLinker,
+                        ArtworkRenderer artworkRenderer,
+                        JellyfinNotifier jellyfinNotifier) {
         this.subjectOperate = subjectOperate;
-        this.attachmentOperate = attachmentOperate;
         this.attachmentReferenceOperate = attachmentReferenceOperate;
-        this.attachmentRelationOperate = attachmentRelationOperate;
+        this.attachmentResolver = attachmentResolver;
         this.ikarosProperties = ikarosProperties;
+        this.syncConfig = syncConfig;
+        this.subjectScanner = subjectScanner;
+        this.subjectChangeDispatcher = subjectChangeDispatcher;
+        this.subjectMetaWatcher = subjectMetaWatcher;
+        this.syncMetrics = syncMetrics;
+        this.fsWorkerPool = fsWorkerPool;
+        this.orphanReconciler = orphanReconciler;
+        this.fileLinker = fileLinker;
+        this.artworkRenderer = artworkRenderer;
+        this.jellyfinNotifier = jellyfinNotifier;
         workDirAbsolutePath = ikarosProperties.getWorkDir().toFile().getAbsolutePath();
     }
 
 
-    public Disposable generate() {
-        return Flux.interval(Duration.ofMinutes(15))
-            .doOnEach(tick -> generateJellyfinMediaDirAndFiles())
-            .subscribe();
+    /**
+     * Start the warm start sync, the full sync sweep and the change driven sync
+     * of single subjects.
+     */
+    public synchronized Disposable generate() {
+        fullSyncSchedule = Disposables.swap();
+        metaWatch = Disposables.swap();
+        fullSyncScheduleKey = null;
+        metaWatchPollSeconds = 0;
+        reschedule();
+        Disposable warmStart = Mono.delay(Duration.ofSeconds(syncConfig.getWarmStartDelaySeconds()))
+            .then(warmStart())
+            .subscribe(report -> log.info("jellyfin media dir warm start sync finished: {}",
+                report), e -> log.warn("jellyfin media dir warm start sync fail.", e));
+        return Disposables.composite(warmStart, fullSyncSchedule,
+            subjectChangeDispatcher.start(this::syncSubjects),
+            metaWatch);
+    }
+
+    /**
+     * Restart the full sync sweep and the subject meta watcher when their schedule
+     * in {@link SyncConfig} changed, a sync in progress is not interrupted.
+     */
+    public synchronized void reschedule() {
+        Disposable.Swap schedule = fullSyncSchedule;
+        if (schedule == null || schedule.isDisposed()) {
+            return;
+        }
+        String scheduleKey = syncConfig.getFullSyncCron() + '|' + syncConfig.getFullSyncMinutes();
+        if (!scheduleKey.equals(fullSyncScheduleKey)) {
+            fullSyncScheduleKey = scheduleKey;
+            schedule.update(fullSyncTicks()
+                .onBackpressureDrop(tick -> log.debug("skip media dir sync tick [{}], "
+                    + "previous sync still running.", tick))
+                .concatMap(tick -> fullSyncTick()
+                    .onErrorResume(e -> {
+                        log.warn("jellyfin media dir sync fail.", e);
+                        return Mono.empty();
+                    }), 1)
+                .subscribe(report -> log.info("jellyfin media dir sync finished: {}", report)));
+            log.info("schedule jellyfin media dir full sync: {}.", describeFullSyncSchedule());
+        }
+        int pollSeconds = syncConfig.getChangePollSeconds();
+        if (pollSeconds != metaWatchPollSeconds) {
+            metaWatchPollSeconds = pollSeconds;
+            metaWatch.update(subjectMetaWatcher.watch());
+        }
+    }
+
+    private Flux<Long> fullSyncTicks() {
+        String cron = syncConfig.getFullSyncCron();
+        if (!StringUtils.hasText(cron)) {
+            return Flux.interval(Duration.ofMinutes(syncConfig.getFullSyncMinutes()));
+        }
+        CronExpression expression = CronExpression.parse(cron);
+        AtomicLong ticks = new AtomicLong();
+        return Mono.defer(() -> {
+                LocalDateTime now = LocalDateTime.now();
+                LocalDateTime next = expression.next(now);
+                return next == null ? Mono.<Long>never()
+                    : Mono.delay(Duration.between(now, next));
+            })
+            .repeat()
+            .map(tick -> ticks.getAndIncrement());
+    }
+
+    private Mono<SyncReport> fullSyncTick() {
+        if (syncConfig.isQuietAt(LocalTime.now())) {
+            log.debug("skip media dir sync tick in quiet hours [{}].",
+                syncConfig.getQuietHours());
+            return Mono.empty();
+        }
+        return sync();
+    }
+
+    private String describeFullSyncSchedule() {
+        String cron = syncConfig.getFullSyncCron();
+        return StringUtils.hasText(cron) ? "cron [" + cron + "]"
+            : "every " + syncConfig.getFullSyncMinutes() + " minutes";
+    }
+
+    /**
+     * Run one full media dir sync, completes empty when another sync is still running.
+     * Into a fresh media dir this runs as a bulk build, see {@link #prepareMediaDir(String)}.
+     */
+    public Mono<SyncReport> sync() {
+        return runExclusive(report ->
+            generateJellyfinMediaDirAndFiles(null, report));
+    }
+
+    /**
+     * Full sync right after start, ordered so that what users miss most appears first:
+     * subjects missing in a target, then subjects aired or updated within
+     * {@link SyncConfig#getRecentDays()}, newest first, then the back catalogue.
+     * A pending bulk build runs as part of it. Completes empty when another sync is running.
+     */
+    public Mono<SyncReport> warmStart() {
+        return runExclusive(report ->
+            generateJellyfinMediaDirAndFiles(null, true, report));
+    }
+
+    /**
+     * Sync only the given subjects, completes empty when another sync is still running.
+     */
+    public Mono<SyncReport> syncSubjects(Collection<Long> subjectIds) {
+        return runExclusive(report ->
+            generateJellyfinMediaDirAndFiles(subjectIds, report));
+    }
+
+    /**
+     * Run a sync into the given report, completes empty when another sync is still running.
+     * A dry run report only compares against the manifests and reports what would change.
+     *
+     * @param subjectIds subjects to sync, null means a full sync of all subjects
+     */
+    public Mono<SyncReport> sync(Collection<Long> subjectIds, SyncReport report) {
+        return runExclusive(() -> report, runReport ->
+            generateJellyfinMediaDirAndFiles(subjectIds, runReport));
+    }
+
+    private Mono<SyncReport> runExclusive(Function<SyncReport, Mono<SyncReport>> job) {
+        return runExclusive(SyncReport::new, job);
+    }
+
+    private Mono<SyncReport> runExclusive(Supplier<SyncReport> reportSupplier,
+                                          Function<SyncReport, Mono<SyncReport>> job) {
+        return Mono.defer(() -> {
+            if (!running.compareAndSet(false, true)) {
+                log.debug("skip media dir sync, previous sync still running.");
+                return Mono.<SyncReport>empty();
+            }
+            // release before the report is emitted, a caller blocking on it may sync again
+            return job.apply(reportSupplier.get())
+                .doOnNext(report -> running.set(false))
+                .doFinally(signalType -> {
+                    running.set(false);
+                    // changes turned away meanwhile
+                    subjectChangeDispatcher.retryBusy();
+                });
+        });
+    }
+
+    private Flux<ListedSubject> scanSubjects(List<MediaTarget> targets) {
+        return subjectScanner.scan(syncConfig.getPageSize(),
+                subjectMeta -> targets.stream()
+                    .anyMatch(target -> target.target().accepts(subjectMeta.getType())))
+            .map(ListedSubject::of);
+    }
+
+    /**
+     * A subject to sync, with what its scan page listed, type, nsfw and meta fingerprint
+     * are null for a subject synced by id.
+     */
+    private record ListedSubject(Long subjectId, SubjectType type, Boolean nsfw,
+                                 String metaFingerprint) {
+        static ListedSubject of(SubjectMeta subjectMeta) {
+            return new ListedSubject(subjectMeta.getId(), subjectMeta.getType(),
+                subjectMeta.getNsfw(), SubjectFingerprint.ofMeta(subjectMeta));
+        }
+
+        static ListedSubject of(Long subjectId) {
+            return new ListedSubject(subjectId, null, null, null);
+        }
+    }
+
+    /**
+     * Media targets of the configured output targets, one per root dir. A target whose
+     * root is, contains or lies in the root of an earlier one is skipped, two targets
+     * must never write and reconcile the same tree.
+     */
+    private List<MediaTarget> activeTargets() {
+        List<MediaTarget> targets = new ArrayList<>();
+        for (OutputTarget outputTarget : syncConfig.getTargets()) {
+            Path root = ikarosProperties.getWorkDir().resolve(outputTarget.getRoot())
+                .toAbsolutePath().normalize();
+            if (targets.stream().anyMatch(target ->
+                root.startsWith(target.root()) || target.root().startsWith(root))) {
+                log.warn("skip output target [{}], its root [{}] overlaps the root of "
+                    + "another target.", outputTarget.getName(), root);
+                continue;
+            }
+            MediaTarget target = mediaTargets.computeIfAbsent(root,
+                key -> new MediaTarget(key, outputTarget));
+            target.update(outputTarget);
+            targets.add(target);
+        }
+        return targets;
+    }
+
+    private Mono<SyncReport> generateJellyfinMediaDirAndFiles(Collection<Long> subjectIds,
+                                                              SyncReport report) {
+        return generateJellyfinMediaDirAndFiles(subjectIds, false, report);
+    }
+
+    /**
+     * @param subjectIds subjects to sync, null means a full sync of all subjects
+     * @param prioritize order a full sync as the warm start does
+     */
+    private Mono<SyncReport> generateJellyfinMediaDirAndFiles(Collection<Long> subjectIds,
+                                                              boolean prioritize,
+                                                              SyncReport report) {
+        boolean fullSync = subjectIds == null;
+        List<MediaTarget> targets = activeTargets();
+        if (targets.isEmpty()) {
+            log.warn("skip media dir sync, no output target configured.");
+            return Mono.fromSupplier(report::finish);
+        }
+        return Mono.fromCallable(() -> prepareMediaDirs(targets, report.isDryRun()) && fullSync)
+            .subscribeOn(fsWorkerPool.scheduler())
+            .flatMap(bulkBuild -> {
+                Flux<ListedSubject> subjects = !fullSync
+                    ? Flux.fromIterable(subjectIds).map(ListedSubject::of)
+                    : prioritize ? prioritizedSubjects(targets) : scanSubjects(targets);
+                if (!bulkBuild) {
+                    return generateSubjects(targets, subjects, report, null, fullSync);
+                }
+                // scan once up front, the subjects it found are the total of the build
+                return subjects.collectList()
+                    .flatMap(bulkSubjects -> generateSubjects(targets,
+                        Flux.fromIterable(bulkSubjects), report,
+                        startBulkBuild(bulkSubjects.size(), targets), true));
+            });
+    }
+
+    /**
+     * All subjects in warm start order. Unlike {@link #scanSubjects(List)} this holds
+     * a small record per subject in memory until the scan is complete.
+     */
+    private Flux<ListedSubject> prioritizedSubjects(List<MediaTarget> targets) {
+        long recentSince = toEpochMilli(LocalDateTime.now()
+            .minusDays(syncConfig.getRecentDays()));
+        return subjectScanner.scan(syncConfig.getPageSize(),
+                subjectMeta -> targets.stream()
+                    .anyMatch(target -> target.target().accepts(subjectMeta.getType())))
+            .map(subjectMeta -> subjectPriority(subjectMeta, targets, recentSince))
+            .collectSortedList(SubjectPriority.ORDER)
+            .doOnNext(priorities -> log.info("warm start jellyfin media dirs: "
+                    + "{} subjects missing, {} recent, {} back catalogue.",
+                priorities.stream().filter(priority -> priority.tier() == 0).count(),
+                priorities.stream().filter(priority -> priority.tier() == 1).count(),
+                priorities.stream().filter(priority -> priority.tier() == 2).count()))
+            .flatMapIterable(priorities -> priorities)
+            .map(SubjectPriority::subject);
+    }
+
+    private static SubjectPriority subjectPriority(SubjectMeta subjectMeta,
+                                                   List<MediaTarget> targets,
+                                                   long recentSince) {
+        boolean missing = false;
+        long recency = subjectMeta.getAirTime() == null ? Long.MIN_VALUE
+            : toEpochMilli(subjectMeta.getAirTime());
+        for (MediaTarget target : targets) {
+            if (!target.target().accepts(subjectMeta.getType())) {
+                continue;
+            }
+            Optional<MediaManifest.Entry> entry = target.manifest().get(subjectMeta.getId());
+            if (entry.isEmpty()) {
+                missing = true;
+            } else if (entry.get().getUpdateTime() != null) {
+                recency = Math.max(recency, entry.get().getUpdateTime());
+            }
+        }
+        int tier = missing ? 0 : recency >= recentSince ? 1 : 2;
+        return new SubjectPriority(ListedSubject.of(subjectMeta), tier, tier == 1 ? recency : 0);
+    }
+
+    /**
+     * Warm start order of a subject, lower tier first, within a tier newer first and
+     * otherwise scan order.
+     */
+    private record SubjectPriority(ListedSubject subject, int tier, long recency) {
+        static final Comparator<SubjectPriority> ORDER =
+            Comparator.comparingInt(SubjectPriority::tier)
+                .thenComparing(Comparator.comparingLong(SubjectPriority::recency).reversed());
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Epoch millis of the newest attachment of snapshot, null if none has an update time.
+     */
+    private static Long latestUpdateTime(SubjectSnapshot snapshot) {
+        return Stream.concat(snapshot.getAttachments().values().stream(),
+                Stream.concat(snapshot.getSubtitles().values().stream().flatMap(List::stream),
+                    snapshot.getImages().values().stream().flatMap(List::stream)))
+            .map(Attachment::getUpdateTime)
+            .filter(Objects::nonNull)
+            .max(Comparator.naturalOrder())
+            .map(MediaDirInit::toEpochMilli)
+            .orElse(null);
     }
 
-    private void generateJellyfinMediaDirAndFiles() {
-        String mediaDirAbsolutePath = workDirAbsolutePath + File.separatorChar + MEDIA_DIR_NAME;
-        String nsfwMediaDirAbsolutePath = mediaDirAbsolutePath + File.separatorChar + "nsfw";
-        String normalMediaDirAbsolutePath = mediaDirAbsolutePath + File.separatorChar + "normal";
-        PagingWrap<Subject> pagingWrap = new PagingWrap<>(1, 9999, 0, null);
+    private BulkBuildProgress startBulkBuild(long totalSubjects, List<MediaTarget> targets) {
+        int resumedSubjects = targets.stream()
+            .filter(target -> target.manifest().getAttribute(BULK_BUILD_ATTRIBUTE).isPresent())
+            .mapToInt(target -> target.manifest().size())
+            .min().orElse(0);
+        BulkBuildProgress progress = new BulkBuildProgress(totalSubjects, resumedSubjects);
+        syncMetrics.setBulkBuildProgress(progress);
+        log.info("start jellyfin media dir bulk build of {} subjects with {} fs workers, "
+                + "{} subjects done by a previous build.",
+            totalSubjects, fsWorkerPool.size(), progress.getResumedSubjects());
+        return progress;
+    }
 
-        File mediaDir = new File(mediaDirAbsolutePath);
-        if (!mediaDir.exists()) {
-            mediaDir.mkdirs();
-            log.debug("create media dir in path: [{}].", mediaDirAbsolutePath);
+    private Mono<SyncReport> generateSubjects(List<MediaTarget> targets,
+                                              Flux<ListedSubject> subjects,
+                                              SyncReport report,
+                                              BulkBuildProgress bulkBuild,
+                                              boolean fullSync) {
+        final int subjectConcurrency = syncConfig.getSubjectConcurrency();
+        final int attachmentConcurrency = syncConfig.getAttachmentConcurrency();
+        final int fsConcurrency = bulkBuild == null
+            ? syncConfig.getFsConcurrency() : fsWorkerPool.size();
+        final int checkpointInterval = Math.max(1, syncConfig.getCheckpointInterval());
+        final Scheduler fsScheduler = fsWorkerPool.scheduler();
+        final AtomicLong generated = new AtomicLong();
+        final DirSnapshot dirs = new DirSnapshot();
+        final Map<MediaTarget, ExpectedMediaTree> expected = new HashMap<>();
+        if (fullSync) {
+            targets.forEach(target -> expected.put(target, new ExpectedMediaTree()));
         }
 
-        subjectOperate.findAllByPageable(pagingWrap)
-            .filter(subjectMeta -> SubjectType.ANIME.equals(subjectMeta.getType()))
-            .flatMap(subjectMeta -> subjectOperate.findById(subjectMeta.getId()))
-            .doOnEach(subjectSignal -> {
-                Subject subject = subjectSignal.get();
-                if (subject == null) {
-                    return;
+        AttachmentResolver.Session attachments = attachmentResolver.newSession();
+
+        return subjects
+            .doOnNext(listed -> report.subjectScanned())
+            .filter(listed -> {
+                if (!fullSync || !isListedCurrent(listed, targets, dirs)) {
+                    return true;
+                }
+                // listed as last resolved, skip the host api calls and leave its dirs as is
+                expected.forEach((target, tree) -> {
+                    if (target.target().accepts(listed.type(), listed.nsfw())) {
+                        target.manifest().get(listed.subjectId()).ifPresent(entry ->
+                            tree.protect(listed.subjectId(), Path.of(entry.getDirPath())));
+                    }
+                });
+                report.record(SyncReport.Outcome.UNCHANGED);
+                bulkBuildSubjectDone(bulkBuild);
+                return false;
+            })
+            .map(ListedSubject::subjectId)
+            .flatMap(subjectId -> timed(subjectOperate.findById(subjectId),
+                    SyncReport.Phase.SUBJECT_FETCH, report)
+                .filter(subject -> targets.stream()
+                    .anyMatch(target -> target.target().accepts(subject)))
+                .filter(subject ->
+                    subject.getEpisodes() != null && !subject.getEpisodes().isEmpty())
+                .flatMap(subject -> timed(attachments.resolve(subject, attachmentConcurrency),
+                    SyncReport.Phase.ATTACHMENT_RESOLVE, report))
+                .onErrorResume(e -> {
+                    log.warn("resolve subject fail, skip current subject:[{}].",
+                        subjectId, e);
+                    report.subjectFailed();
+                    expected.forEach((target, tree) -> tree.protect(subjectId,
+                        target.manifest().get(subjectId)
+                            .map(MediaManifest.Entry::getDirPath).map(Path::of).orElse(null)));
+                    return Mono.empty();
+                })
+                // filtered out or failed, done as far as a bulk build is concerned
+                .switchIfEmpty(Mono.fromRunnable(() -> bulkBuildSubjectDone(bulkBuild))),
+                subjectConcurrency)
+            .flatMap(snapshot -> Mono.fromCallable(() -> fingerprintOf(snapshot, dirs))
+                .flatMap(fingerprint ->
+                    scaleArtwork(snapshot, fingerprint, targets, dirs, report)
+                        .publishOn(fsScheduler)
+                        .map(scaled -> handleSnapshot(snapshot, fingerprint, scaled, targets,
+                            expected, dirs, report)))
+                .subscribeOn(fsScheduler)
+                .onErrorResume(e -> {
+                    log.warn("generate subject dir fail, skip current subject:[{}].",
+                        snapshot.getSubject().getName(), e);
+                    expected.forEach((target, tree) -> {
+                        if (target.target().accepts(snapshot.getSubject())) {
+                            protectSubjectDirs(snapshot.getSubject(), target, tree);
+                        }
+                    });
+                    return Mono.just(SyncReport.Outcome.INCOMPLETE);
+                }), fsConcurrency)
+            .doOnNext(outcome -> {
+                report.record(outcome);
+                // checkpoint, so an interrupted run resumes from the manifest
+                if (!report.isDryRun() && SyncReport.Outcome.GENERATED.equals(outcome)
+                    && generated.incrementAndGet() % checkpointInterval == 0) {
+                    targets.forEach(target -> target.manifest().save());
                 }
-                handleSubject(subjectSignal,
-                    subject.getNsfw() ? nsfwMediaDirAbsolutePath : normalMediaDirAbsolutePath);
+                bulkBuildSubjectDone(bulkBuild);
             })
-            .subscribeOn(Schedulers.boundedElastic())
-            .subscribe();
+            .then(Mono.fromRunnable(() -> {
+                if (bulkBuild != null) {
+                    targets.forEach(target ->
+                        target.manifest().setAttribute(BULK_BUILD_ATTRIBUTE, null));
+                    log.info("jellyfin media dir bulk build finished: {}", bulkBuild);
+                }
+                if (!report.isDryRun()) {
+                    targets.forEach(target -> target.manifest().save());
+                }
+            }).subscribeOn(fsScheduler))
+            .thenMany(Flux.fromIterable(expected.entrySet()))
+            .concatMap(entry -> reconcile(entry.getKey(), entry.getValue(), report))
+            .then(Mono.fromSupplier(report::finish))
+            .doOnNext(finished -> {
+                // a dry run changed nothing, keep the last report of a real run
+                if (!finished.isDryRun()) {
+                    syncMetrics.recordRun(finished);
+                    jellyfinNotifier.notifyUpdated(finished.updatedDirs());
+                }
+            });
     }
 
-    private void handleSubject(Signal<Subject> subjectSignal, String mediaDirAbsolutePath) {
-        Subject subject = subjectSignal.get();
-        if (subject == null) {
-            return;
+    /**
+     * Reconcile target with the expected tree of a full sync. Subjects the tree does not
+     * know are looked up first, only the dirs of those gone or no longer accepted by target
+     * are orphans.
+     */
+    private Mono<Void> reconcile(MediaTarget target, ExpectedMediaTree expected,
+                                 SyncReport report) {
+        Scheduler fsScheduler = fsWorkerPool.scheduler();
+        return Mono.fromCallable(() -> orphanReconciler.candidateSubjectIds(target.root(),
+                target.subjectDirDepth(), target.manifest(), expected))
+            .subscribeOn(fsScheduler)
+            .flatMapMany(Flux::fromIterable)
+            .flatMap(subjectId -> subjectOperate.findById(subjectId)
+                .map(subject -> target.target().accepts(subject))
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    log.warn("look up subject fail, keep its dir: [{}].", subjectId, e);
+                    return Mono.just(true);
+                })
+                .filter(kept -> !kept)
+                .map(kept -> subjectId), syncConfig.getSubjectConcurrency())
+            .collect(Collectors.toSet())
+            .publishOn(fsScheduler)
+            .doOnNext(goneSubjectIds -> report.addReconcile(target.name(),
+                orphanReconciler.reconcile(target.root(), target.subjectDirDepth(),
+                    target.manifest(), expected, goneSubjectIds,
+                    syncConfig.isOrphanDryRun() || report.isDryRun(), report)))
+            .then();
+    }
+
+    private static void bulkBuildSubjectDone(BulkBuildProgress bulkBuild) {
+        if (bulkBuild != null && bulkBuild.subjectDone()) {
+            log.info("jellyfin media dir bulk build progress: {}", bulkBuild);
+        }
+    }
+
+    private <T> Mono<T> timed(Mono<T> mono, SyncReport.Phase phase, SyncReport report) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signalType ->
+                syncMetrics.recordPhase(report, phase, System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Link existing at link, unless link already shows its current content. A stale copy,
+     * e.g. of a replaced source file, is replaced.
+     *
+     * @return true if link was created
+     */
+    private boolean linkIfStale(Path link, Path existing, DirSnapshot dirs, SyncReport report)
+        throws IOException {
+        if (dirs.exists(link)) {
+            if (fileLinker.isCurrent(link, existing)) {
+                return false;
+            }
+            log.debug("replace stale media file: [{}].", link);
+            Files.deleteIfExists(link);
+            dirs.deleted(link);
+        }
+        createLink(link, existing, dirs, report);
+        return true;
+    }
+
+    private void createLink(Path link, Path existing, DirSnapshot dirs, SyncReport report)
+        throws IOException {
+        long start = System.nanoTime();
+        try {
+            fileLinker.link(link, existing);
+            dirs.created(link);
+            report.linkCreated();
+        } catch (IOException e) {
+            report.linkFailed();
+            throw e;
+        } finally {
+            syncMetrics.recordPhase(report, SyncReport.Phase.LINK, System.nanoTime() - start);
+        }
+    }
+
+    private boolean writeNfo(BooleanSupplier nfoGenerator, SyncReport report) {
+        long start = System.nanoTime();
+        try {
+            boolean written = nfoGenerator.getAsBoolean();
+            if (written) {
+                report.nfoWritten();
+            }
+            return written;
+        } finally {
+            syncMetrics.recordPhase(report, SyncReport.Phase.NFO, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Create the target root dirs and load their manifests. An empty manifest marks a bulk
+     * build, the mark stays in the manifest until a full sync went through all subjects.
+     * A dry run only loads the manifests and writes nothing.
+     *
+     * @return true if a bulk build is pending in any target and this is no dry run
+     */
+    private boolean prepareMediaDirs(List<MediaTarget> targets, boolean dryRun)
+        throws IOException {
+        if (dryRun) {
+            targets.forEach(MediaTarget::load);
+            return false;
+        }
+        boolean bulkBuild = false;
+        for (MediaTarget target : targets) {
+            if (target.prepare()) {
+                log.debug("prepare media dir of target [{}] in path: [{}].",
+                    target.name(), target.root());
+                MediaManifest manifest = target.manifest();
+                if (manifest.size() == 0) {
+                    manifest.setAttribute(BULK_BUILD_ATTRIBUTE, "pending");
+                    manifest.save();
+                }
+            }
+            bulkBuild |= target.manifest().getAttribute(BULK_BUILD_ATTRIBUTE).isPresent();
+        }
+        return bulkBuild;
+    }
+
+    private String fingerprintOf(SubjectSnapshot snapshot, DirSnapshot dirs) {
+        String remoteState = "remote-" + syncConfig.getRemoteEpisodeMode();
+        return SubjectFingerprint.of(snapshot,
+            attachment -> localSource(attachment, dirs) != null ? "local" : remoteState)
+            + '-' + artworkRenderer.specKey();
+    }
+
+    /**
+     * Scale the artwork of the subject dirs about to be generated on the artwork workers,
+     * the fs worker is released meanwhile.
+     */
+    private Mono<Map<String, byte[]>> scaleArtwork(SubjectSnapshot snapshot,
+                                                   String fingerprint,
+                                                   List<MediaTarget> targets,
+                                                   DirSnapshot dirs,
+                                                   SyncReport report) {
+        if (report.isDryRun()) {
+            return Mono.just(Map.of());
+        }
+        Subject subject = snapshot.getSubject();
+        List<Path> subjectDirs = targets.stream()
+            .filter(target -> target.target().accepts(subject))
+            .filter(target -> unchangedEntry(subject, targetFingerprint(fingerprint, target),
+                target, dirs).filter(MediaDirInit::isSkipped).isEmpty())
+            .map(target -> subjectDirOf(subject, target))
+            .toList();
+        if (subjectDirs.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return artworkRenderer.scale(artworkSources(snapshot, dirs), subjectDirs, dirs);
+    }
+
+    /**
+     * Generate the subject into every target accepting it.
+     *
+     * @param scaled artwork scaled by {@link #scaleArtwork}
+     * @param expected collects the files of subject per target on a full sync, empty otherwise
+     * @return the worst outcome over the targets
+     */
+    private SyncReport.Outcome handleSnapshot(SubjectSnapshot snapshot,
+                                              String fingerprint,
+                                              Map<String, byte[]> scaled,
+                                              List<MediaTarget> targets,
+                                              Map<MediaTarget, ExpectedMediaTree> expected,
+                                              DirSnapshot dirs,
+                                              SyncReport report) {
+        SyncReport.Outcome outcome = SyncReport.Outcome.UNCHANGED;
+        for (MediaTarget target : targets) {
+            if (!target.target().accepts(snapshot.getSubject())) {
+                continue;
+            }
+            SyncReport.Outcome targetOutcome = handleSnapshot(snapshot,
+                targetFingerprint(fingerprint, target), scaled, target, expected.get(target),
+                dirs, report);
+            if (targetOutcome.compareTo(outcome) > 0) {
+                outcome = targetOutcome;
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Whether a listed subject needs no resolving, in every target accepting it the manifest
+     * entry is complete, has the listed meta fingerprint, its dir still exists and it was
+     * last resolved within verifyHours. Entries resolved by the same run fall due spread
+     * over the last quarter of verifyHours.
+     */
+    private boolean isListedCurrent(ListedSubject listed, List<MediaTarget> targets,
+                                    DirSnapshot dirs) {
+        long verifyMillis = Duration.ofHours(syncConfig.getVerifyHours()).toMillis();
+        if (listed.metaFingerprint() == null || verifyMillis <= 0) {
+            return false;
+        }
+        long checkedSince = System.currentTimeMillis() - verifyMillis
+            + Math.floorMod(listed.subjectId(), 16) * verifyMillis / 64;
+        boolean accepted = false;
+        for (MediaTarget target : targets) {
+            if (!target.target().accepts(listed.type(), listed.nsfw())) {
+                continue;
+            }
+            accepted = true;
+            String metaFingerprint = targetMetaFingerprint(listed.metaFingerprint(), target);
+            Path parentDir = target.subjectParentDir(Boolean.TRUE.equals(listed.nsfw()));
+            boolean current = target.manifest().get(listed.subjectId())
+                .filter(entry -> !entry.isIncomplete())
+                .filter(entry -> metaFingerprint.equals(entry.getMetaFingerprint()))
+                .filter(entry -> entry.getCheckTime() != null
+                    && entry.getCheckTime() > checkedSince)
+                .map(entry -> Path.of(entry.getDirPath()))
+                .filter(dir -> parentDir.equals(dir.getParent()) && dirs.exists(dir))
+                .isPresent();
+            if (!current) {
+                return false;
+            }
         }
+        return accepted;
+    }
+
+    /**
+     * Meta fingerprint of subject in target, with the config its dir is generated by.
+     */
+    private String targetMetaFingerprint(String metaFingerprint, MediaTarget target) {
+        return metaFingerprint + '-' + syncConfig.getRemoteEpisodeMode().name().toLowerCase()
+            + '-' + artworkRenderer.specKey() + '-'
+            + target.target().getDialect().name().toLowerCase();
+    }
+
+    private static String targetFingerprint(String fingerprint, MediaTarget target) {
+        return fingerprint + '-' + target.target().getDialect().name().toLowerCase();
+    }
+
+    /**
+     * Manifest entry of subject in target if its fingerprint and dir match and the dir
+     * still exists.
+     */
+    private static Optional<MediaManifest.Entry> unchangedEntry(Subject subject,
+                                                                String fingerprint,
+                                                                MediaTarget target,
+                                                                DirSnapshot dirs) {
+        String subjectDirAbsolutePath = subjectDirOf(subject, target).toString();
+        return target.manifest().get(subject.getId())
+            .filter(entry -> fingerprint.equals(entry.getFingerprint()))
+            .filter(entry -> subjectDirAbsolutePath.equals(entry.getDirPath()))
+            .filter(entry -> dirs.exists(Path.of(subjectDirAbsolutePath)));
+    }
+
+    /**
+     * Whether an unchanged subject is skipped, complete or incomplete before its retry time.
+     */
+    private static boolean isSkipped(MediaManifest.Entry unchanged) {
+        return !unchanged.isIncomplete() || isRetryPending(unchanged);
+    }
 
-        if (subject.getEpisodes() == null || subject.getEpisodes().isEmpty()) {
+    private static boolean isRetryPending(MediaManifest.Entry entry) {
+        return entry.getRetryTime() != null && entry.getRetryTime() > System.currentTimeMillis();
+    }
+
+    /**
+     * Generate subject dir of target only when its fingerprint differs from the manifest,
+     * or the dir recorded by manifest has gone. A subject left incomplete with the same
+     * fingerprint is generated again once its retry time has passed.
+     *
+     * @param expected collects the files of subject on a full sync, null otherwise
+     */
+    private SyncReport.Outcome handleSnapshot(SubjectSnapshot snapshot,
+                                              String fingerprint,
+                                              Map<String, byte[]> scaled,
+                                              MediaTarget target,
+                                              ExpectedMediaTree expected,
+                                              DirSnapshot dirs,
+                                              SyncReport report) {
+        Subject subject = snapshot.getSubject();
+        String subjectDirAbsolutePath = subjectDirOf(subject, target).toString();
+        if (expected != null) {
+            expected.expect(subject.getId(), Path.of(subjectDirAbsolutePath),
+                expectedFileNames(snapshot));
+        }
+        NfoDialect dialect = target.target().getDialect();
+        MediaManifest manifest = target.manifest();
+        Optional<MediaManifest.Entry> unchanged =
+            unchangedEntry(subject, fingerprint, target, dirs);
+        String metaFingerprint = targetMetaFingerprint(SubjectFingerprint.ofMeta(subject),
+            target);
+        if (unchanged.filter(entry -> !entry.isIncomplete()).isPresent()) {
+            log.debug("skip unchanged subject:[{}].", subject.getName());
+            if (!report.isDryRun()) {
+                manifest.put(subject.getId(), unchanged.get()
+                    .setMetaFingerprint(metaFingerprint)
+                    .setCheckTime(System.currentTimeMillis()));
+            }
+            return SyncReport.Outcome.UNCHANGED;
+        }
+        if (unchanged.filter(MediaDirInit::isRetryPending).isPresent()) {
+            log.debug("skip incomplete subject until its retry time:[{}].", subject.getName());
+            protectSubjectDirs(subject, target, expected);
+            return SyncReport.Outcome.UNCHANGED;
+        }
+        if (report.isDryRun()) {
+            log.debug("dry run, subject would be generated:[{}].", subject.getName());
+            return SyncReport.Outcome.GENERATED;
+        }
+        Path subjectDir = Path.of(subjectDirAbsolutePath);
+        boolean moved = manifest.get(subject.getId())
+            .map(MediaManifest.Entry::getDirPath)
+            .filter(previousDirPath -> !previousDirPath.equals(subjectDirAbsolutePath))
+            .filter(previousDirPath -> moveSubjectDir(subject, Path.of(previousDirPath),
+                subjectDir, dirs, report))
+            .isPresent();
+        report.dirUpdated(subjectDir, !moved && dirs.exists(subjectDir)
+            ? SyncReport.DirUpdate.MODIFIED : SyncReport.DirUpdate.CREATED);
+        if (!handleSubject(snapshot, subjectDirAbsolutePath, dialect, scaled, dirs, report)) {
+            protectSubjectDirs(subject, target, expected);
+            // record the fingerprint, an unchanged subject is retried with backoff only
+            int incompleteRuns = unchanged.map(MediaManifest.Entry::getIncompleteRuns)
+                .orElse(0) + 1;
+            manifest.put(subject.getId(),
+                new MediaManifest.Entry(fingerprint, subjectDirAbsolutePath,
+                    latestUpdateTime(snapshot), incompleteRuns,
+                    System.currentTimeMillis() + incompleteRetryDelay(incompleteRuns)
+                        .toMillis()));
+            return SyncReport.Outcome.INCOMPLETE;
+        }
+        manifest.put(subject.getId(),
+            new MediaManifest.Entry(fingerprint, subjectDirAbsolutePath,
+                latestUpdateTime(snapshot))
+                .setMetaFingerprint(metaFingerprint)
+                .setCheckTime(System.currentTimeMillis()));
+        return SyncReport.Outcome.GENERATED;
+    }
+
+    private static Path subjectDirOf(Subject subject, MediaTarget target) {
+        return target.subjectParentDir(Boolean.TRUE.equals(subject.getNsfw()))
+            .resolve(buildMediaAnimeDirName(subject));
+    }
+
+    /**
+     * Leave the dirs of an incomplete subject to the orphan reconciler as they are, its
+     * dir and the one the manifest recorded. Files of episodes that did not resolve this
+     * run are not expected, but must not be removed for a transient failure.
+     *
+     * @param expected the expected tree of a full sync, null otherwise
+     */
+    private static void protectSubjectDirs(Subject subject, MediaTarget target,
+                                           ExpectedMediaTree expected) {
+        if (expected == null) {
             return;
         }
+        expected.protect(subject.getId(), subjectDirOf(subject, target));
+        target.manifest().get(subject.getId())
+            .map(MediaManifest.Entry::getDirPath)
+            .ifPresent(dirPath -> expected.protect(subject.getId(), Path.of(dirPath)));
+    }
 
-        List<SubjectSync> syncs = subject.getSyncs();
-        Optional<String> bgmTvIdOp = syncs.stream().filter(
-                subjectSync ->
-                    SubjectSyncPlatform.BGM_TV.equals(subjectSync.getPlatform()))
-            .map(SubjectSync::getPlatformId)
-            .findFirst();
+    private static Duration incompleteRetryDelay(int incompleteRuns) {
+        Duration delay = INCOMPLETE_RETRY_MIN.multipliedBy(1L << Math.min(incompleteRuns - 1, 16));
+        return delay.compareTo(INCOMPLETE_RETRY_MAX) > 0 ? INCOMPLETE_RETRY_MAX : delay;
+    }
+
+    /**
+     * Rename the dir previously generated for subject to its new path with a single
+     * move, so a changed name or nsfw flag keeps every linked and rendered file.
+     *
+     * @return false if there is nothing to move or the move failed, the new dir is
+     * then generated from scratch and the old one left to the orphan reconciler
+     */
+    private boolean moveSubjectDir(Subject subject, Path previousDir, Path subjectDir,
+                                   DirSnapshot dirs, SyncReport report) {
+        if (!dirs.exists(previousDir) || dirs.exists(subjectDir)
+            || !isSubjectDirOf(previousDir, subject.getId(), dirs)) {
+            return false;
+        }
+        try {
+            Path parentDir = subjectDir.getParent();
+            if (!dirs.exists(parentDir)) {
+                Files.createDirectories(parentDir);
+                dirs.created(parentDir);
+            }
+            Files.move(previousDir, subjectDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("move subject dir fail, regenerate it, from: [{}], to: [{}].",
+                previousDir, subjectDir, e);
+            return false;
+        }
+        dirs.moved(previousDir, subjectDir);
+        report.dirUpdated(previousDir, SyncReport.DirUpdate.DELETED);
+        log.info("move subject:[{}] dir from [{}] to [{}].", subject.getName(),
+            previousDir, subjectDir);
+        return true;
+    }
+
+    /**
+     * Whether dir belongs to subject, dirs generated before the id file existed are
+     * trusted to the manifest.
+     */
+    private static boolean isSubjectDirOf(Path dir, Long subjectId, DirSnapshot dirs) {
+        Path subjectIdFile = dir.resolve(SUBJECT_ID_FILE_NAME);
+        if (!dirs.exists(subjectIdFile)) {
+            return true;
+        }
+        try {
+            return String.valueOf(subjectId).equals(Files.readString(subjectIdFile).trim());
+        } catch (IOException e) {
+            log.warn("read subject id file fail, path: [{}].", subjectIdFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Generate subject dir files.
+     *
+     * @return true if every file of subject is generated, false means retry next tick
+     */
+    private boolean handleSubject(SubjectSnapshot snapshot, String subjectDirAbsolutePath,
+                                  NfoDialect dialect, Map<String, byte[]> scaled,
+                                  DirSnapshot dirs, SyncReport report) {
+        Subject subject = snapshot.getSubject();
+        Optional<String> bgmTvIdOp = snapshot.bgmTvId();
 
         // generate subject dir.
-        String subjectDirAbsolutePath = mediaDirAbsolutePath +
-            File.separatorChar + buildMediaAnimeDirName(subject);
-        File subjectDirFile = new File(subjectDirAbsolutePath);
-        if (!subjectDirFile.exists()) {
-            subjectDirFile.mkdirs();
+        Path subjectDir = Path.of(subjectDirAbsolutePath);
+        if (!dirs.exists(subjectDir)) {
+            try {
+                Files.createDirectories(subjectDir);
+            } catch (IOException e) {
+                log.warn("create subject dir fail, skip current subject:[{}]. ",
+                    subject.getName(), e);
+                return false;
+            }
+            dirs.createdDir(subjectDir);
             log.debug("create subject dir in path: [{}].", subjectDirAbsolutePath);
         }
 
-        // generate tvshow.nfo file.
+        // tag subject dir with subject id, so later renames can move it.
+        Path subjectIdFile = subjectDir.resolve(SUBJECT_ID_FILE_NAME);
+        try {
+            if (NfoWriter.writeIfChanged(subjectIdFile, String.valueOf(subject.getId()),
+                dirs.exists(subjectIdFile))) {
+                dirs.created(subjectIdFile);
+            }
+        } catch (IOException e) {
+            log.warn("write subject id file fail, path: [{}].", subjectIdFile, e);
+        }
+
+        // generate tvshow.nfo file, rewrite only when content changed
         File tvShowFile = new File(subjectDirAbsolutePath
             + File.separatorChar + "tvshow.nfo");
-        if (!tvShowFile.exists()) {
-            try {
-                XmlUtils.generateJellyfinTvShowNfoXml(tvShowFile.getAbsolutePath(),
-                    subject.getSummary(), subject.getNameCn(),
-                    subject.getName(),
-                    bgmTvIdOp.orElse(""));
+        boolean tvShowFileExists = dirs.exists(tvShowFile.toPath());
+        try {
+            if (writeNfo(() -> XmlUtils.generateTvShowNfoXml(dialect,
+                tvShowFile.getAbsolutePath(),
+                subject.getSummary(), subject.getNameCn(),
+                subject.getName(),
+                bgmTvIdOp.orElse(""), tvShowFileExists), report)) {
+                dirs.created(tvShowFile.toPath());
                 log.debug("create subject:[{}] tv show file:[{}].", subject.getName(),
                     tvShowFile.getAbsolutePath());
-            } catch (Exception e) {
-                log.warn("create tv show file fail, skip current subject:[{}]. ",
-                    subject.getName(), e);
-                return;
             }
+        } catch (Exception e) {
+            log.warn("create tv show file fail, skip current subject:[{}]. ",
+                subject.getName(), e);
+            return false;
         }
 
+        boolean complete = true;
 
-        // generate cover img file.
-        String coverAbsolutePath = workDirAbsolutePath +
-            (subject.getCover().startsWith("/") ? subject.getCover() : "/" + subject.getCover());
-        File coverFile = new File(coverAbsolutePath);
-        if (coverFile.exists()) {
-            String postfix = FileUtils.parseFilePostfix(coverAbsolutePath);
-            String posterFilePath = subjectDirAbsolutePath
-                + File.separatorChar
-                + "poster"
-                + (StringUtils.hasText(postfix)
-                ? (postfix.startsWith(".") ? postfix : "." + postfix)
-                : ".jpg");
-            File posterFile = new File(posterFilePath);
-            if (!posterFile.exists()) {
-                try {
-                    if (!posterFile.exists()) {
-                        Files.createLink(posterFile.toPath(), coverFile.toPath());
-                        log.debug(
-                            "create jellyfin poster.jpg hard link success, link={}, existing={}",
-                            posterFilePath, coverAbsolutePath);
-                    }
-                } catch (IOException e) {
-                    log.warn(
-                        "create jellyfin poster.jpg hard link fail, link={}, existing={}",
-                        posterFilePath, coverAbsolutePath);
-                }
-            }
-        }
+        // generate poster, fanart and episode thumbnails.
+        complete &= renderArtwork(snapshot, subjectDir, scaled, dirs, report);
 
         // generate episode file and nfo
         List<Episode> episodes = subject.getEpisodes();
@@ -168,112 +1003,344 @@ public class MediaDirInit {
             }
             EpisodeResource episodeResource = episode.getResources().get(0);
             Long attachmentId = episodeResource.getAttachmentId();
-            attachmentOperate.findById(attachmentId).subscribe(attachment ->
-                linkEpisodeFileAndGenerateNfo(
-                    bgmTvIdOp, subjectDirAbsolutePath, episode, attachment));
+            List<Attachment> subtitles = episode.getResources().stream()
+                .map(EpisodeResource::getAttachmentId)
+                .flatMap(attId -> snapshot.subtitlesOf(attId).stream())
+                .toList();
+            complete &= linkEpisodeFileAndGenerateNfo(bgmTvIdOp, subjectDirAbsolutePath,
+                episode, snapshot.attachmentOf(attachmentId).orElse(null), subtitles, dialect,
+                dirs, report);
+        }
+        return complete;
+    }
+
+    /**
+     * Artwork sources of subject, its cover and the images next to its episodes.
+     */
+    private List<ArtworkRenderer.Source> artworkSources(SubjectSnapshot snapshot,
+                                                        DirSnapshot dirs) {
+        List<ArtworkRenderer.Source> sources = new ArrayList<>();
+        String cover = snapshot.getSubject().getCover();
+        if (StringUtils.hasText(cover)) {
+            Path coverFile = Path.of(workDirAbsolutePath
+                + (cover.startsWith("/") ? cover : "/" + cover));
+            if (dirs.exists(coverFile)) {
+                sources.add(new ArtworkRenderer.Source(ArtworkRenderer.Kind.POSTER, coverFile,
+                    POSTER_FILE_NAME));
+            }
+        }
+        ArtworkRenderer.fanartOf(snapshot)
+            .map(image -> localSource(image, dirs))
+            .ifPresent(fanart -> sources.add(new ArtworkRenderer.Source(
+                ArtworkRenderer.Kind.FANART, fanart, ArtworkRenderer.FANART_FILE_NAME)));
+        for (Episode episode : snapshot.getSubject().getEpisodes()) {
+            if (episode.getResources() == null || episode.getResources().isEmpty()) {
+                continue;
+            }
+            Attachment attachment = snapshot.attachmentOf(
+                episode.getResources().get(0).getAttachmentId()).orElse(null);
+            ArtworkRenderer.thumbOf(snapshot, attachment)
+                .map(image -> localSource(image, dirs))
+                .ifPresent(thumb -> sources.add(new ArtworkRenderer.Source(
+                    ArtworkRenderer.Kind.THUMB, thumb,
+                    ArtworkRenderer.thumbBaseName(attachment.getName()))));
+        }
+        return sources;
+    }
+
+    /**
+     * Render the artwork of subject from its cover and the images next to its episodes.
+     *
+     * @return true if every artwork with an existing source is rendered
+     */
+    private boolean renderArtwork(SubjectSnapshot snapshot, Path subjectDir,
+                                  Map<String, byte[]> scaled, DirSnapshot dirs,
+                                  SyncReport report) {
+        Path statePath = subjectDir.resolve(ArtworkRenderer.STATE_FILE_NAME);
+        ArtworkRenderer.State state =
+            ArtworkRenderer.State.load(subjectDir, dirs.exists(statePath));
+        boolean complete = true;
+        for (ArtworkRenderer.Source source : artworkSources(snapshot, dirs)) {
+            complete &= renderArtwork(source, subjectDir, state, scaled, dirs, report);
+        }
+
+        try {
+            if (state.save()) {
+                dirs.created(statePath);
+            }
+        } catch (IOException e) {
+            log.warn("save artwork state fail, path: [{}].", statePath, e);
+        }
+        return complete;
+    }
 
+    private boolean renderArtwork(ArtworkRenderer.Source source, Path subjectDir,
+                                  ArtworkRenderer.State state, Map<String, byte[]> scaled,
+                                  DirSnapshot dirs, SyncReport report) {
+        long start = System.nanoTime();
+        try {
+            if (artworkRenderer.render(source.kind(), source.path(), subjectDir,
+                source.baseName(), state, scaled, dirs)) {
+                report.artworkWritten();
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("render jellyfin {} artwork fail, dir={}, source={}",
+                source.kind(), subjectDir, source.path(), e);
+            return false;
+        } finally {
+            syncMetrics.recordPhase(report, SyncReport.Phase.ARTWORK,
+                System.nanoTime() - start);
         }
     }
 
-    private void linkEpisodeFileAndGenerateNfo(Optional<String> bgmTvIdOp,
-                                               String subjectDirAbsolutePath,
-                                               Episode episode,
-                                               Attachment attachment) {
+    /**
+     * Names of the files {@link #handleSubject} generates into the subject dir,
+     * the poster is matched by name only as its postfix follows the cover.
+     */
+    private static Set<String> expectedFileNames(SubjectSnapshot snapshot) {
+        Set<String> names = new HashSet<>();
+        names.add("tvshow.nfo");
+        names.add(SUBJECT_ID_FILE_NAME);
+        names.add(ArtworkRenderer.STATE_FILE_NAME);
+        ArtworkRenderer.fanartOf(snapshot).ifPresent(image -> names.addAll(
+            ArtworkRenderer.fileNamesOf(ArtworkRenderer.FANART_FILE_NAME, image.getName())));
+        for (Episode episode : snapshot.getSubject().getEpisodes()) {
+            if (episode.getResources() == null || episode.getResources().isEmpty()) {
+                continue;
+            }
+            snapshot.attachmentOf(episode.getResources().get(0).getAttachmentId())
+                .ifPresent(attachment -> {
+                    String fileName = attachment.getName();
+                    names.add(fileName);
+                    names.add(episodeNfoFileName(fileName));
+                    names.add(episodeStrmFileName(fileName));
+                    ArtworkRenderer.thumbOf(snapshot, attachment).ifPresent(image ->
+                        names.addAll(ArtworkRenderer.fileNamesOf(
+                            ArtworkRenderer.thumbBaseName(fileName), image.getName())));
+                });
+            episode.getResources().stream()
+                .map(EpisodeResource::getAttachmentId)
+                .flatMap(attId -> snapshot.subtitlesOf(attId).stream())
+                .map(Attachment::getName)
+                .forEach(names::add);
+        }
+        return names;
+    }
+
+    private static String episodeNfoFileName(String episodeFileName) {
+        return episodeFileName.replaceAll(RegexConst.FILE_POSTFIX, "") + ".nfo";
+    }
+
+    private static String episodeStrmFileName(String episodeFileName) {
+        return episodeFileName.replaceAll(RegexConst.FILE_POSTFIX, "") + ".strm";
+    }
+
+    private boolean linkEpisodeFileAndGenerateNfo(Optional<String> bgmTvIdOp,
+                                                  String subjectDirAbsolutePath,
+                                                  Episode episode,
+                                                  Attachment attachment,
+                                                  List<Attachment> subtitles,
+                                                  NfoDialect dialect,
+                                                  DirSnapshot dirs,
+                                                  SyncReport report) {
         if (attachment == null) {
             log.warn("skip operate, attachment is null for episode: [{}].",
                 episode.getName());
-            return;
+            return false;
         }
         String fileName = attachment.getName();
 
         String epFileAbsolutePath = attachment.getFsPath();
-        if (epFileAbsolutePath == null) {
+        boolean streamRemote = SyncConfig.RemoteEpisodeMode.STRM
+            .equals(syncConfig.getRemoteEpisodeMode());
+        if (epFileAbsolutePath == null && !streamRemote) {
             log.warn("skip link episode attachment, "
                 + "episode attachment ref not exists for attachment: {}", attachment);
-            return;
-        }
-        File episodeFile = new File(epFileAbsolutePath);
-        if (!episodeFile.exists() && StringUtils.hasText(attachment.getUrl())
-            && attachment.getUrl().startsWith("/file")) {
-            episodeFile = new File(ikarosProperties.getWorkDir() + attachment.getUrl());
+            return false;
         }
+        Path episodeFile = localSource(attachment, dirs);
         File targetEpisodeFile =
             new File(subjectDirAbsolutePath + File.separatorChar + fileName);
         File episodeNfoFile =
             new File(subjectDirAbsolutePath + File.separatorChar
-                + fileName.replaceAll(RegexConst.FILE_POSTFIX, "") + ".nfo");
-        if (episodeFile.exists()) {
+                + episodeNfoFileName(fileName));
+        Path episodeStrmFile = Path.of(subjectDirAbsolutePath, episodeStrmFileName(fileName));
+        boolean complete = true;
+        if (episodeFile != null) {
             // link episode file
             try {
-                if (!targetEpisodeFile.exists()) {
-                    Files.createLink(targetEpisodeFile.toPath(), episodeFile.toPath());
+                if (linkIfStale(targetEpisodeFile.toPath(), episodeFile, dirs, report)) {
                     log.debug(
-                        "create jellyfin episode hard link success, link={}, existing={}",
-                        targetEpisodeFile.getAbsolutePath(), epFileAbsolutePath);
+                        "create jellyfin episode link success, link={}, existing={}",
+                        targetEpisodeFile.getAbsolutePath(), episodeFile);
                 }
             } catch (IOException e) {
+                complete = false;
                 log.warn(
-                    "create jellyfin episode hard link fail, link={}, existing={}",
-                    targetEpisodeFile.getAbsolutePath(), epFileAbsolutePath, e);
-            }
-            // generate nfo file
-            Integer sequence = episode.getSequence();
-            if (!episodeNfoFile.exists()) {
-                XmlUtils.generateJellyfinEpisodeNfoXml(episodeNfoFile.getAbsolutePath(),
-                    episode.getDescription(),
-                    StringUtils.hasText(episode.getNameCn()) ? episode.getNameCn() :
-                        episode.getName(),
-                    EpisodeGroup.MAIN.equals(episode.getGroup()) ? "1" : "0",
-                    String.valueOf(DoubleUtils.castInt(sequence)), bgmTvIdOp.orElse(""));
-                log.debug("create episode nfo file, episode:[{}], nfo file path:[{}].",
-                    episode.getName(), episodeNfoFile.getAbsolutePath());
+                    "create jellyfin episode link fail, link={}, existing={}",
+                    targetEpisodeFile.getAbsolutePath(), episodeFile, e);
             }
+            complete &= generateEpisodeNfo(bgmTvIdOp, episode, episodeNfoFile, dialect, dirs,
+                report);
 
             // link ass file if exists
-            Flux.fromStream(episode.getResources().stream())
-                .map(EpisodeResource::getAttachmentId)
-                .flatMap(attId -> attachmentRelationOperate.findAllByTypeAndAttachmentId(
-                        AttachmentRelationType.VIDEO_SUBTITLE, attId)
-                    .map(AttachmentRelation::getRelationAttachmentId)
-                    .flatMap(attachmentOperate::findById)
-                    .flatMap(subtitle -> {
-                        final String name = subtitle.getName();
-                        final String fsPath = subtitle.getFsPath();
-                        log.debug("ass file exists: {}", Files.exists(Path.of(fsPath)));
-                        if (Files.exists(Path.of(fsPath))) {
-                            File targetAssFile = new File(subjectDirAbsolutePath
-                                + File.separatorChar + name);
-                            try {
-                                log.debug("targetAssFile exists: {}.", targetAssFile.exists());
-                                if (!targetAssFile.exists()) {
-                                    Files.createLink(targetAssFile.toPath(), Path.of(fsPath));
-                                    log.debug("create jellyfin episode subtitle hard link success, "
-                                            + "link={}, existing={}",
-                                        targetAssFile.getAbsolutePath(), name);
-                                }
-                            } catch (IOException e) {
-                                log.debug("create jellyfin episode subtitle hard link fail, "
-                                        + "link={}, existing={}",
-                                    targetAssFile.getAbsolutePath(), name, e);
-                            }
-                        }
-                        return Mono.just(subtitle);
-                    })
-                    .collectList()
-                )
-                .subscribeOn(Schedulers.boundedElastic())
-                .subscribe();
+            for (Attachment subtitle : subtitles) {
+                final String name = subtitle.getName();
+                final String fsPath = subtitle.getFsPath();
+                if (fsPath == null || !dirs.exists(Path.of(fsPath))) {
+                    continue;
+                }
+                File targetAssFile = new File(subjectDirAbsolutePath
+                    + File.separatorChar + name);
+                try {
+                    if (linkIfStale(targetAssFile.toPath(), Path.of(fsPath), dirs, report)) {
+                        log.debug("create jellyfin episode subtitle link success, "
+                                + "link={}, existing={}",
+                            targetAssFile.getAbsolutePath(), name);
+                    }
+                } catch (IOException e) {
+                    complete = false;
+                    log.warn("create jellyfin episode subtitle link fail, "
+                            + "link={}, existing={}",
+                        targetAssFile.getAbsolutePath(), name, e);
+                }
+            }
 
+            // back from remote, the local file replaces the stream once it is linked
+            if (complete && dirs.exists(episodeStrmFile)) {
+                complete = deleteFile(episodeStrmFile, dirs);
+            }
+        } else if (streamRemote) {
+            // 剧集文件不存在，可能是已经推送到了远端，改为生成指向远端的 strm 文件
+            String streamUrl = streamUrl(attachment);
+            if (streamUrl == null) {
+                log.warn("skip stream remote episode, no url or external url for "
+                    + "attachment: {}", attachment);
+                return false;
+            }
+            try {
+                if (NfoWriter.writeIfChanged(episodeStrmFile,
+                    streamUrl + System.lineSeparator(), dirs.exists(episodeStrmFile))) {
+                    dirs.created(episodeStrmFile);
+                    log.debug("create jellyfin episode strm file, episode:[{}], url:[{}].",
+                        episode.getName(), streamUrl);
+                }
+            } catch (IOException e) {
+                log.warn("create jellyfin episode strm file fail, path:[{}].",
+                    episodeStrmFile, e);
+                return false;
+            }
+            complete &= generateEpisodeNfo(bgmTvIdOp, episode, episodeNfoFile, dialect, dirs,
+                report);
+            // the stream is in place, drop the stale local link
+            if (dirs.exists(targetEpisodeFile.toPath())) {
+                complete &= deleteFile(targetEpisodeFile.toPath(), dirs);
+            }
         } else {
             // 剧集文件不存在，可能是已经推送到了远端
             // 如果此时媒体目录的剧集文件和nfo文件存在，则删除
-            if (targetEpisodeFile.exists()) {
-                targetEpisodeFile.delete();
+            if (dirs.exists(targetEpisodeFile.toPath()) && targetEpisodeFile.delete()) {
+                dirs.deleted(targetEpisodeFile.toPath());
+            }
+            if (dirs.exists(episodeNfoFile.toPath()) && episodeNfoFile.delete()) {
+                dirs.deleted(episodeNfoFile.toPath());
+            }
+            if (dirs.exists(episodeStrmFile)) {
+                deleteFile(episodeStrmFile, dirs);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Generate episode nfo file, rewrite only when content changed.
+     */
+    private boolean generateEpisodeNfo(Optional<String> bgmTvIdOp, Episode episode,
+                                       File episodeNfoFile, NfoDialect dialect,
+                                       DirSnapshot dirs, SyncReport report) {
+        Integer sequence = episode.getSequence();
+        boolean episodeNfoFileExists = dirs.exists(episodeNfoFile.toPath());
+        try {
+            if (writeNfo(() -> XmlUtils.generateEpisodeNfoXml(dialect,
+                episodeNfoFile.getAbsolutePath(),
+                episode.getDescription(),
+                StringUtils.hasText(episode.getNameCn()) ? episode.getNameCn() :
+                    episode.getName(),
+                EpisodeGroup.MAIN.equals(episode.getGroup()) ? "1" : "0",
+                String.valueOf(DoubleUtils.castInt(sequence)), bgmTvIdOp.orElse(""),
+                episodeNfoFileExists), report)) {
+                dirs.created(episodeNfoFile.toPath());
+                log.debug("create episode nfo file, episode:[{}], nfo file path:[{}].",
+                    episode.getName(), episodeNfoFile.getAbsolutePath());
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("create episode nfo file fail, episode:[{}], nfo file path:[{}].",
+                episode.getName(), episodeNfoFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    private boolean deleteFile(Path path, DirSnapshot dirs) {
+        try {
+            Files.deleteIfExists(path);
+            dirs.deleted(path);
+            return true;
+        } catch (IOException e) {
+            log.warn("delete media dir file fail, path:[{}].", path, e);
+            return false;
+        }
+    }
+
+    /**
+     * Local file of attachment, its fsPath or the file its /file url maps to in the work dir.
+     *
+     * @return null if the file is not on this host, e.g. pushed to a remote
+     */
+    private Path localSource(Attachment attachment, DirSnapshot dirs) {
+        if (attachment.getFsPath() != null) {
+            Path fsPath = Path.of(attachment.getFsPath());
+            if (dirs.exists(fsPath)) {
+                return fsPath;
             }
-            if (episodeNfoFile.exists()) {
-                episodeNfoFile.delete();
+        }
+        String url = attachment.getUrl();
+        if (StringUtils.hasText(url) && url.startsWith("/file")) {
+            Path workDirFile = Path.of(ikarosProperties.getWorkDir() + url);
+            if (dirs.exists(workDirFile)) {
+                return workDirFile;
             }
         }
+        return null;
+    }
+
+    /**
+     * Url Jellyfin streams a remote episode from, the attachment url as served by the host.
+     */
+    private String streamUrl(Attachment attachment) {
+        String url = attachment.getUrl();
+        if (!StringUtils.hasText(url)) {
+            return null;
+        }
+        if (url.startsWith("http://") || url.startsWith("https://")) {
+            return url;
+        }
+        URI externalUrl = ikarosProperties.getExternalUrl();
+        if (externalUrl == null) {
+            return null;
+        }
+        String base = externalUrl.toString();
+        if (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        try {
+            return base + new URI(null, null, url.startsWith("/") ? url : "/" + url, null)
+                .toASCIIString();
+        } catch (URISyntaxException e) {
+            log.warn("build stream url fail, url: [{}].", url, e);
+            return null;
+        }
     }
 
     /**
@@ -284,7 +1351,7 @@ public class MediaDirInit {
      * @param subject 条目ID
      * @return 媒体目录名称
      */
-    private String buildMediaAnimeDirName(Subject subject) {
+    static String buildMediaAnimeDirName(Subject subject) {
         Assert.notNull(subject, "'subject' must not null.");
         String nameCn = subject.getNameCn();
         String name = subject.getName();
@@ -0,0 +1,263 @@
+package run.ikaros.jellyfin;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of what has been generated into a media dir, one entry per subject.
+ * Stored as a properties file inside the media dir and replaced atomically on save.
+ */
+@Slf4j
+public class MediaManifest {
+    static final String FILE_NAME = ".manifest.properties";
+    private static final String KEY_PREFIX = "subject.";
+    private static final String ATTRIBUTE_PREFIX = "meta.";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String DIR = "dir";
+    private static final String UPDATE_TIME = "updated";
+    private static final String INCOMPLETE_RUNS = "incomplete";
+    private static final String RETRY_TIME = "retry";
+    private static final String META_FINGERPRINT = "meta";
+    private static final String CHECK_TIME = "checked";
+
+    private final Path manifestPath;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> attributes = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private MediaManifest(Path manifestPath) {
+        this.manifestPath = manifestPath;
+    }
+
+    /**
+     * Load the manifest of media dir, an unreadable manifest is treated as empty
+     * so that the next tick simply regenerates everything.
+     */
+    public static MediaManifest load(Path mediaDir) {
+        MediaManifest manifest = new MediaManifest(mediaDir.resolve(FILE_NAME));
+        if (!Files.exists(manifest.manifestPath)) {
+            return manifest;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(manifest.manifestPath)) {
+            properties.load(in);
+        } catch (IOException e) {
+            log.warn("read media manifest fail, regenerate all subjects, path: [{}].",
+                manifest.manifestPath, e);
+            return manifest;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ATTRIBUTE_PREFIX)) {
+                manifest.attributes.put(key.substring(ATTRIBUTE_PREFIX.length()),
+                    properties.getProperty(key));
+                continue;
+            }
+            if (!key.startsWith(KEY_PREFIX)) {
+                continue;
+            }
+            int dotIndex = key.lastIndexOf('.');
+            Long subjectId;
+            try {
+                subjectId = Long.valueOf(key.substring(KEY_PREFIX.length(), dotIndex));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                continue;
+            }
+            Entry entry = manifest.entries.computeIfAbsent(subjectId, id -> new Entry());
+            String value = properties.getProperty(key);
+            switch (key.substring(dotIndex + 1)) {
+                case FINGERPRINT -> entry.setFingerprint(value);
+                case DIR -> entry.setDirPath(value);
+                case UPDATE_TIME -> {
+                    try {
+                        entry.setUpdateTime(Long.valueOf(value));
+                    } catch (NumberFormatException e) {
+                        // only orders the warm start, ignore
+                    }
+                }
+                case INCOMPLETE_RUNS -> {
+                    try {
+                        entry.setIncompleteRuns(Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        // retried right away, ignore
+                    }
+                }
+                case RETRY_TIME -> {
+                    try {
+                        entry.setRetryTime(Long.valueOf(value));
+                    } catch (NumberFormatException e) {
+                        // retried right away, ignore
+                    }
+                }
+                case META_FINGERPRINT -> entry.setMetaFingerprint(value);
+                case CHECK_TIME -> {
+                    try {
+                        entry.setCheckTime(Long.valueOf(value));
+                    } catch (NumberFormatException e) {
+                        // resolved again by the next full sync, ignore
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        log.debug("load media manifest with {} subjects, path: [{}].",
+            manifest.entries.size(), manifest.manifestPath);
+        return manifest;
+    }
+
+    public Optional<Entry> get(Long subjectId) {
+        return Optional.ofNullable(entries.get(subjectId));
+    }
+
+    public void put(Long subjectId, Entry entry) {
+        entries.put(subjectId, entry);
+        dirty = true;
+    }
+
+    public void remove(Long subjectId) {
+        if (entries.remove(subjectId) != null) {
+            dirty = true;
+        }
+    }
+
+    public Set<Long> subjectIds() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Optional<String> getAttribute(String key) {
+        return Optional.ofNullable(attributes.get(key));
+    }
+
+    /**
+     * Set a manifest wide attribute, null removes it.
+     */
+    public void setAttribute(String key, String value) {
+        if (value == null) {
+            if (attributes.remove(key) != null) {
+                dirty = true;
+            }
+        } else if (!value.equals(attributes.put(key, value))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the manifest if it changed since the last save.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Properties properties = new Properties();
+        attributes.forEach((key, value) -> properties.setProperty(ATTRIBUTE_PREFIX + key, value));
+        entries.forEach((subjectId, entry) -> {
+            String prefix = KEY_PREFIX + subjectId + '.';
+            if (entry.getFingerprint() != null) {
+                properties.setProperty(prefix + FINGERPRINT, entry.getFingerprint());
+            }
+            if (entry.getDirPath() != null) {
+                properties.setProperty(prefix + DIR, entry.getDirPath());
+            }
+            if (entry.getUpdateTime() != null) {
+                properties.setProperty(prefix + UPDATE_TIME, entry.getUpdateTime().toString());
+            }
+            if (entry.isIncomplete()) {
+                properties.setProperty(prefix + INCOMPLETE_RUNS,
+                    String.valueOf(entry.getIncompleteRuns()));
+            }
+            if (entry.getRetryTime() != null) {
+                properties.setProperty(prefix + RETRY_TIME, entry.getRetryTime().toString());
+            }
+            if (entry.getMetaFingerprint() != null) {
+                properties.setProperty(prefix + META_FINGERPRINT, entry.getMetaFingerprint());
+            }
+            if (entry.getCheckTime() != null) {
+                properties.setProperty(prefix + CHECK_TIME, entry.getCheckTime().toString());
+            }
+        });
+        Path tmpPath = manifestPath.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(manifestPath.getParent());
+            try (OutputStream out = Files.newOutputStream(tmpPath)) {
+                properties.store(out, "ikaros jellyfin media manifest");
+            }
+            Files.move(tmpPath, manifestPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("save media manifest fail, path: [{}].", manifestPath, e);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Accessors(chain = true)
+    public static class Entry {
+        private String fingerprint;
+        /**
+         * Absolute path of the generated subject dir.
+         */
+        private String dirPath;
+        /**
+         * Epoch millis of the newest attachment the dir was generated from.
+         */
+        private Long updateTime;
+        /**
+         * Consecutive runs the subject came back incomplete with this fingerprint, 0 once
+         * every file of it is generated.
+         */
+        private int incompleteRuns;
+        /**
+         * Epoch millis from which an incomplete subject is generated again although its
+         * fingerprint did not change.
+         */
+        private Long retryTime;
+        /**
+         * Meta fingerprint of the subject in this target when it was last resolved complete,
+         * a full sync listing the same one skips resolving the subject until checkTime is due.
+         */
+        private String metaFingerprint;
+        /**
+         * Epoch millis the subject was last resolved and found complete.
+         */
+        private Long checkTime;
+
+        public Entry(String fingerprint, String dirPath) {
+            this(fingerprint, dirPath, null);
+        }
+
+        public Entry(String fingerprint, String dirPath, Long updateTime) {
+            this(fingerprint, dirPath, updateTime, 0, null);
+        }
+
+        public Entry(String fingerprint, String dirPath, Long updateTime, int incompleteRuns,
+                     Long retryTime) {
+            this(fingerprint, dirPath, updateTime, incompleteRuns, retryTime, null, null);
+        }
+
+        public boolean isIncomplete() {
+            return incompleteRuns > 0;
+        }
+    }
+}
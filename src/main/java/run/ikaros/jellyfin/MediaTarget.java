@@ -0,0 +1,82 @@
+package run.ikaros.jellyfin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An {@link OutputTarget} being synced, its resolved root and its manifest.
+ */
+class MediaTarget {
+    private final Path root;
+    private volatile OutputTarget target;
+    private volatile MediaManifest manifest;
+    private volatile boolean prepared;
+
+    MediaTarget(Path root, OutputTarget target) {
+        this.root = root;
+        this.target = target;
+    }
+
+    Path root() {
+        return root;
+    }
+
+    OutputTarget target() {
+        return target;
+    }
+
+    void update(OutputTarget target) {
+        this.target = target;
+    }
+
+    String name() {
+        return target.getName();
+    }
+
+    /**
+     * Load the manifest on first use without writing anything, as a dry run needs it.
+     */
+    MediaManifest load() {
+        if (manifest == null) {
+            manifest = MediaManifest.load(root);
+        }
+        return manifest;
+    }
+
+    /**
+     * Create root and load the manifest on first use.
+     *
+     * @return true if this call prepared the target
+     */
+    boolean prepare() throws IOException {
+        if (prepared) {
+            return false;
+        }
+        Files.createDirectories(root);
+        load();
+        prepared = true;
+        return true;
+    }
+
+    MediaManifest manifest() {
+        return manifest;
+    }
+
+    /**
+     * Dir subject dirs of a nsfw or normal subject go into.
+     */
+    Path subjectParentDir(boolean nsfw) {
+        if (!target.isSplitNsfw()) {
+            return root;
+        }
+        return root.resolve(nsfw ? "nsfw" : "normal");
+    }
+
+    /**
+     * Depth of subject dirs below root.
+     */
+    int subjectDirDepth() {
+        return target.isSplitNsfw() ? 2 : 1;
+    }
+}
@@ -0,0 +1,62 @@
+package run.ikaros.jellyfin;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.ApplicationContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer side of {@link SyncMetrics}, only loaded when micrometer is on the classpath.
+ */
+class MicrometerSyncMetrics {
+    private static final String PREFIX = "ikaros.jellyfin.sync";
+    private final MeterRegistry registry;
+    private final Map<SyncReport.Phase, Timer> phaseTimers = new EnumMap<>(SyncReport.Phase.class);
+    private final Timer runTimer;
+
+    private MicrometerSyncMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (SyncReport.Phase phase : SyncReport.Phase.values()) {
+            phaseTimers.put(phase, Timer.builder(PREFIX + ".phase")
+                .description("Latency of a single operation of a media dir sync phase.")
+                .tag("phase", phase.name().toLowerCase())
+                .publishPercentileHistogram()
+                .register(registry));
+        }
+        runTimer = Timer.builder(PREFIX + ".duration")
+            .description("Duration of a whole media dir sync run.")
+            .register(registry);
+    }
+
+    static MicrometerSyncMetrics create(ApplicationContext applicationContext) {
+        MeterRegistry registry =
+            applicationContext.getBeanProvider(MeterRegistry.class).getIfAvailable();
+        return registry == null ? null : new MicrometerSyncMetrics(registry);
+    }
+
+    void recordPhase(SyncReport.Phase phase, long nanos) {
+        phaseTimers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordRun(SyncReport report) {
+        runTimer.record(report.getDuration());
+        count("subjects", "outcome", "scanned", report.getSubjectsScanned());
+        count("subjects", "outcome", "changed", report.getSubjectsChanged());
+        count("subjects", "outcome", "skipped", report.getSubjectsSkipped());
+        count("subjects", "outcome", "failed", report.getSubjectsFailed());
+        count("links", "result", "created", report.getLinksCreated());
+        count("links", "result", "failed", report.getLinksFailed());
+        count("nfos", "result", "written", report.getNfosWritten());
+        count("artworks", "result", "written", report.getArtworksWritten());
+        count("orphans", "result", "removed", report.getOrphansRemoved());
+    }
+
+    private void count(String name, String tagKey, String tagValue, long amount) {
+        if (amount > 0) {
+            registry.counter(PREFIX + '.' + name, tagKey, tagValue).increment(amount);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package run.ikaros.jellyfin;
+
+/**
+ * Flavour of nfo files written into an output target.
+ */
+public enum NfoDialect {
+    /**
+     * Jellyfin nfo, with lockdata and the bangumiid element read by the Jellyfin bangumi plugin.
+     */
+    JELLYFIN,
+    /**
+     * Emby reads the same nfo as Jellyfin, which inherited its format.
+     */
+    EMBY,
+    /**
+     * Kodi nfo, no lockdata and the bangumi id as a uniqueid element.
+     */
+    KODI
+}
@@ -0,0 +1,176 @@
+package run.ikaros.jellyfin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Renders Jellyfin nfo xml by hand, byte for byte what the JDK DOM Transformer
+ * wrote with indent enabled, without building a DOM or looking up factories
+ * for every file.
+ */
+public class NfoWriter {
+    private static final String XML_DECLARATION =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String INDENT = "    ";
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final ThreadLocal<StringBuilder> BUFFER =
+        ThreadLocal.withInitial(() -> new StringBuilder(2048));
+
+    public static String renderTvShow(String plot, String title, String originalTitle,
+                                      String subjectId) {
+        return renderTvShow(NfoDialect.JELLYFIN, plot, title, originalTitle, subjectId);
+    }
+
+    public static String renderTvShow(NfoDialect dialect, String plot, String title,
+                                      String originalTitle, String subjectId) {
+        StringBuilder sb = begin("tvshow");
+        element(sb, "plot", plot);
+        lockData(sb, dialect);
+        element(sb, "title", title);
+        element(sb, "originaltitle", originalTitle);
+        bangumiId(sb, dialect, subjectId);
+        return end(sb, "tvshow");
+    }
+
+    public static String renderEpisode(String plot, String title, String season,
+                                       String episode, String subjectId) {
+        return renderEpisode(NfoDialect.JELLYFIN, plot, title, season, episode, subjectId);
+    }
+
+    public static String renderEpisode(NfoDialect dialect, String plot, String title,
+                                       String season, String episode, String subjectId) {
+        StringBuilder sb = begin("episodedetails");
+        element(sb, "plot", plot);
+        lockData(sb, dialect);
+        element(sb, "title", title);
+        element(sb, "season", season);
+        element(sb, "episode", episode);
+        bangumiId(sb, dialect, subjectId);
+        return end(sb, "episodedetails");
+    }
+
+    /**
+     * Write content only when it differs from the file on disk, an unchanged file keeps
+     * its mtime so Jellyfin does not rescan it.
+     *
+     * @return true if the file was written
+     */
+    public static boolean writeIfChanged(Path path, String content) throws IOException {
+        return writeIfChanged(path, content, true);
+    }
+
+    /**
+     * Same as {@link #writeIfChanged(Path, String)} for callers that already know
+     * whether the file exists, a missing file is written without touching the disk first.
+     */
+    public static boolean writeIfChanged(Path path, String content, boolean exists)
+        throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (exists) {
+            try {
+                if (Arrays.equals(Files.readAllBytes(path), bytes)) {
+                    return false;
+                }
+            } catch (NoSuchFileException e) {
+                // gone meanwhile, write it
+            }
+        }
+        writeAtomically(path, bytes);
+        return true;
+    }
+
+    /**
+     * Write content through a temp file in the same dir and rename it over the
+     * target, so readers never see a half written file.
+     */
+    public static void writeAtomically(Path path, String content) throws IOException {
+        writeAtomically(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeAtomically(Path path, byte[] bytes) throws IOException {
+        Path tmpPath = path.resolveSibling("." + path.getFileName() + ".tmp");
+        try {
+            try {
+                Files.write(tmpPath, bytes);
+            } catch (NoSuchFileException e) {
+                Files.createDirectories(path.getParent());
+                Files.write(tmpPath, bytes);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
+        }
+    }
+
+    private static StringBuilder begin(String root) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb.append(XML_DECLARATION).append('<').append(root).append('>');
+    }
+
+    private static String end(StringBuilder sb, String root) {
+        return sb.append(LINE_SEPARATOR)
+            .append("</").append(root).append('>').append(LINE_SEPARATOR)
+            .toString();
+    }
+
+    private static void lockData(StringBuilder sb, NfoDialect dialect) {
+        if (!NfoDialect.KODI.equals(dialect)) {
+            element(sb, "lockdata", "false");
+        }
+    }
+
+    private static void bangumiId(StringBuilder sb, NfoDialect dialect, String subjectId) {
+        if (!NfoDialect.KODI.equals(dialect)) {
+            element(sb, "bangumiid", subjectId);
+        } else if (subjectId != null && !subjectId.isEmpty()) {
+            sb.append(LINE_SEPARATOR).append(INDENT)
+                .append("<uniqueid type=\"bangumi\" default=\"true\">");
+            escape(sb, subjectId);
+            sb.append("</uniqueid>");
+        }
+    }
+
+    private static void element(StringBuilder sb, String name, String text) {
+        sb.append(LINE_SEPARATOR).append(INDENT).append('<').append(name);
+        if (text == null || text.isEmpty()) {
+            sb.append("/>");
+            return;
+        }
+        sb.append('>');
+        escape(sb, text);
+        sb.append("</").append(name).append('>');
+    }
+
+    private static void escape(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> sb.append("&amp;");
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                case '\r' -> sb.append("&#13;");
+                case '\n' -> sb.append(LINE_SEPARATOR);
+                default -> {
+                    if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        // the transformer writes supplementary chars as char refs
+                        sb.append("&#").append(Character.toCodePoint(c, text.charAt(++i)))
+                            .append(';');
+                    } else if ((c < 0x20 && c != '\t') || (c >= 0x7F && c <= 0x9F)) {
+                        sb.append("&#").append((int) c).append(';');
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
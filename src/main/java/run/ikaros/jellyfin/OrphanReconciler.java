@@ -0,0 +1,332 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Removes what a full sync no longer expects from the media dir: dirs of deleted, renamed
+ * or nsfw toggled subjects, and files of unbound episodes and subtitles.
+ * Missing from the expected tree is no proof a subject is gone, the scan may have skipped
+ * it or filtered it out for a moment. A subject dir is only removed if its subject, read
+ * from its .subject-id file or the manifest, is expected in another dir or confirmed gone,
+ * see {@link #candidateSubjectIds}. Dirs of unknown subjects are kept.
+ * The media dir is diffed against the expected tree in one walk, with media dir layout
+ * {@code <mediaDir>/[<category>/]<subject dir>/<files>}. Dirs and files outside that layout,
+ * dot entries, dirs nested in subject dirs and dirs without a tvshow.nfo, which the sync
+ * did not generate, are left alone.
+ */
+@Slf4j
+@Component
+public class OrphanReconciler {
+    static final String QUARANTINE_DIR_NAME = ".orphans";
+    private static final String TV_SHOW_NFO = "tvshow.nfo";
+    private final SyncConfig syncConfig;
+
+    public OrphanReconciler(SyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+    }
+
+    /**
+     * Subjects whose dirs or manifest entries are orphans if the subjects are gone: those
+     * of the manifest and of .subject-id files in subject dirs the sync did not expect or
+     * protect this run, left out the subjects it did. The caller looks them up and passes
+     * the ones gone on to {@link #reconcile}.
+     */
+    public Set<Long> candidateSubjectIds(Path mediaDir, int subjectDirDepth,
+                                         MediaManifest manifest, ExpectedMediaTree expected) {
+        Set<Long> subjectIds = new HashSet<>();
+        if (expected.isEmpty()) {
+            return subjectIds;
+        }
+        manifest.subjectIds().stream()
+            .filter(subjectId -> !expected.isKnown(subjectId))
+            .forEach(subjectIds::add);
+        Path root = mediaDir.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            return subjectIds;
+        }
+        try (Stream<Path> dirs = Files.walk(root, subjectDirDepth)) {
+            dirs.filter(dir -> root.relativize(dir).getNameCount() == subjectDirDepth)
+                .filter(dir -> !isHidden(root.relativize(dir)))
+                .filter(dir -> !expected.isExpectedDir(dir) && !expected.isProtectedDir(dir))
+                .map(OrphanReconciler::subjectIdFileOf)
+                .filter(subjectId -> subjectId != null && !expected.isKnown(subjectId))
+                .forEach(subjectIds::add);
+        } catch (IOException | RuntimeException e) {
+            log.warn("list subject dirs fail, path: [{}].", root, e);
+        }
+        return subjectIds;
+    }
+
+    /**
+     * Remove orphans from media dir and their manifest entries.
+     *
+     * @param goneSubjectIds the {@link #candidateSubjectIds} confirmed gone, dirs of the
+     *                       other candidates are kept
+     * @param dryRun only report the orphans, touch nothing
+     */
+    public ReconcileReport reconcile(Path mediaDir, int subjectDirDepth, MediaManifest manifest,
+                                     ExpectedMediaTree expected, Set<Long> goneSubjectIds,
+                                     boolean dryRun, SyncReport report) {
+        ReconcileReport reconcileReport = new ReconcileReport(dryRun);
+        if (expected.isEmpty()) {
+            log.info("skip media dir reconciliation, no subject was synced.");
+            return reconcileReport;
+        }
+        Path root = mediaDir.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            // a dry run before the first sync, nothing was generated yet
+            log.info("skip media dir reconciliation, no media dir: [{}].", root);
+            return reconcileReport;
+        }
+        Map<Path, Long> manifestDirs = new HashMap<>();
+        for (Long subjectId : manifest.subjectIds()) {
+            manifest.get(subjectId)
+                .map(MediaManifest.Entry::getDirPath)
+                .ifPresent(dirPath -> manifestDirs.put(
+                    Path.of(dirPath).toAbsolutePath().normalize(), subjectId));
+        }
+        OrphanVisitor visitor = new OrphanVisitor(root, subjectDirDepth, expected,
+            subjectDir -> {
+                Long subjectId = subjectIdFileOf(subjectDir);
+                return subjectId != null ? subjectId : manifestDirs.get(subjectDir);
+            }, goneSubjectIds, dryRun, syncConfig.getOrphanAction(),
+            new DeletePacer(syncConfig.getOrphanDeletesPerSecond()), reconcileReport, report);
+        try {
+            Files.walkFileTree(root, visitor);
+        } catch (IOException e) {
+            log.warn("walk media dir fail, path: [{}].", root, e);
+        }
+        for (Long subjectId : manifest.subjectIds()) {
+            if (!expected.isKnown(subjectId) && goneSubjectIds.contains(subjectId)) {
+                reconcileReport.manifestEntryRemoved();
+                if (!dryRun) {
+                    manifest.remove(subjectId);
+                }
+            }
+        }
+        if (!dryRun) {
+            manifest.save();
+        }
+        return reconcileReport;
+    }
+
+    private static boolean isHidden(Path relativeDir) {
+        for (Path name : relativeDir) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Subject id in the .subject-id file of dir, null if there is none.
+     */
+    private static Long subjectIdFileOf(Path subjectDir) {
+        Path subjectIdFile = subjectDir.resolve(MediaDirInit.SUBJECT_ID_FILE_NAME);
+        if (!Files.exists(subjectIdFile)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(Files.readString(subjectIdFile).trim());
+        } catch (IOException | NumberFormatException e) {
+            log.warn("read subject id file fail, path: [{}].", subjectIdFile, e);
+            return null;
+        }
+    }
+
+    private static class OrphanVisitor extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final int subjectDirDepth;
+        private final ExpectedMediaTree expected;
+        private final Function<Path, Long> subjectIds;
+        private final Set<Long> goneSubjectIds;
+        private final boolean dryRun;
+        private final SyncConfig.OrphanAction action;
+        private final DeletePacer pacer;
+        private final ReconcileReport reconcileReport;
+        private final SyncReport report;
+        private Path orphanDir;
+
+        OrphanVisitor(Path root, int subjectDirDepth, ExpectedMediaTree expected,
+                      Function<Path, Long> subjectIds, Set<Long> goneSubjectIds,
+                      boolean dryRun, SyncConfig.OrphanAction action, DeletePacer pacer,
+                      ReconcileReport reconcileReport, SyncReport report) {
+            this.root = root;
+            this.subjectDirDepth = subjectDirDepth;
+            this.expected = expected;
+            this.subjectIds = subjectIds;
+            this.goneSubjectIds = goneSubjectIds;
+            this.dryRun = dryRun;
+            this.action = action;
+            this.pacer = pacer;
+            this.reconcileReport = reconcileReport;
+            this.report = report;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            throws IOException {
+            if (orphanDir != null || dir.equals(root)) {
+                return FileVisitResult.CONTINUE;
+            }
+            int depth = root.relativize(dir).getNameCount();
+            if (dir.getFileName().toString().startsWith(".")) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (depth < subjectDirDepth) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (depth > subjectDirDepth || expected.isProtectedDir(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (expected.isExpectedDir(dir)) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (!Files.exists(dir.resolve(TV_SHOW_NFO))) {
+                // not generated by the sync
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (!isOrphan(subjectIds.apply(dir))) {
+                log.debug("keep subject dir of a subject not confirmed gone: [{}].", dir);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            reconcileReport.orphanDir(dir.toString());
+            if (dryRun) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (SyncConfig.OrphanAction.QUARANTINE.equals(action)) {
+                quarantine(dir);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            orphanDir = dir;
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Whether the dir of subject is an orphan, a stale dir of a subject expected
+         * elsewhere or the dir of a subject confirmed gone.
+         */
+        private boolean isOrphan(Long subjectId) {
+            if (subjectId == null || expected.isProtectedSubject(subjectId)) {
+                return false;
+            }
+            return expected.isExpectedSubject(subjectId) || goneSubjectIds.contains(subjectId);
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (orphanDir != null) {
+                delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            if (root.relativize(file).getNameCount() != subjectDirDepth + 1
+                || expected.isExpectedFile(file)) {
+                return FileVisitResult.CONTINUE;
+            }
+            reconcileReport.orphanFile(file.toString());
+            if (!dryRun && delete(file)) {
+                reconcileReport.removed();
+                report.orphanRemoved();
+                report.dirUpdated(file.getParent(), SyncReport.DirUpdate.MODIFIED);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("visit media dir file fail, path: [{}].", file, e);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+            if (orphanDir == null) {
+                return FileVisitResult.CONTINUE;
+            }
+            boolean deleted = delete(dir);
+            if (dir.equals(orphanDir)) {
+                orphanDir = null;
+                if (deleted) {
+                    reconcileReport.removed();
+                    report.orphanRemoved();
+                    report.dirUpdated(dir, SyncReport.DirUpdate.DELETED);
+                    log.debug("remove orphan subject dir: [{}].", dir);
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        private boolean delete(Path path) {
+            pacer.acquire();
+            try {
+                Files.deleteIfExists(path);
+                return true;
+            } catch (IOException e) {
+                reconcileReport.failed();
+                log.warn("remove orphan fail, path: [{}].", path, e);
+                return false;
+            }
+        }
+
+        private void quarantine(Path dir) {
+            pacer.acquire();
+            Path target = root.resolve(QUARANTINE_DIR_NAME).resolve(root.relativize(dir));
+            try {
+                Files.createDirectories(target.getParent());
+                if (Files.exists(target)) {
+                    target = target.resolveSibling(target.getFileName() + "."
+                        + System.currentTimeMillis());
+                }
+                Files.move(dir, target);
+                reconcileReport.removed();
+                report.orphanRemoved();
+                report.dirUpdated(dir, SyncReport.DirUpdate.DELETED);
+                log.debug("move orphan subject dir: [{}] to [{}].", dir, target);
+            } catch (IOException e) {
+                reconcileReport.failed();
+                log.warn("move orphan subject dir fail, path: [{}].", dir, e);
+            }
+        }
+    }
+
+    /**
+     * Spaces filesystem deletes evenly, at most permitsPerSecond, 0 means unlimited.
+     */
+    private static class DeletePacer {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        DeletePacer(int permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0
+                ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        }
+
+        void acquire() {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (next > now) {
+                LockSupport.parkNanos(next - now);
+            }
+            next = Math.max(next, now) + intervalNanos;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package run.ikaros.jellyfin;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.store.enums.SubjectType;
+
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A media library generated by the sync, e.g. one per Jellyfin, Emby or Kodi instance.
+ * All targets are fed from the same subject and attachment resolution of a sync run.
+ */
+@Data
+@Accessors(chain = true)
+public class OutputTarget {
+    /**
+     * Unique name, used in logs and reports.
+     */
+    private String name = "jellyfin";
+    /**
+     * Root dir of the library, relative paths are resolved against the ikaros work dir.
+     */
+    private String root = "jellyfin";
+    private Set<SubjectType> subjectTypes = EnumSet.of(SubjectType.ANIME);
+    private NsfwFilter nsfw = NsfwFilter.ALL;
+    /**
+     * Put subject dirs into root/normal and root/nsfw instead of directly into root.
+     */
+    private boolean splitNsfw = true;
+    private NfoDialect dialect = NfoDialect.JELLYFIN;
+
+    public enum NsfwFilter {
+        ALL,
+        EXCLUDE,
+        ONLY
+    }
+
+    /**
+     * Copy of this target with another root.
+     */
+    public OutputTarget withRoot(String root) {
+        return new OutputTarget()
+            .setName(name)
+            .setRoot(root)
+            .setSubjectTypes(subjectTypes)
+            .setNsfw(nsfw)
+            .setSplitNsfw(splitNsfw)
+            .setDialect(dialect);
+    }
+
+    /**
+     * Parse a target from its ConfigMap form, semicolon separated {@code key=value} pairs
+     * with the field names as keys, e.g.
+     * {@code name=kodi; root=/media/kodi; dialect=kodi; subjectTypes=anime,real}.
+     * name and root are required, other fields keep their defaults.
+     *
+     * @throws IllegalArgumentException if a pair is malformed or a value invalid
+     */
+    public static OutputTarget parse(String text) {
+        OutputTarget target = new OutputTarget();
+        Set<String> keys = new HashSet<>();
+        for (String pair : text.split(";")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("missing '=' in [" + pair.trim() + "]");
+            }
+            String key = pair.substring(0, separator).trim();
+            String value = pair.substring(separator + 1).trim();
+            keys.add(key);
+            switch (key) {
+                case "name" -> target.setName(value);
+                case "root" -> target.setRoot(Path.of(value).toString());
+                case "dialect" -> target.setDialect(parseEnum(NfoDialect.class, value));
+                case "nsfw" -> target.setNsfw(parseEnum(NsfwFilter.class, value));
+                case "splitNsfw" -> {
+                    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                        throw new IllegalArgumentException("invalid splitNsfw [" + value + "]");
+                    }
+                    target.setSplitNsfw(Boolean.parseBoolean(value));
+                }
+                case "subjectTypes" -> {
+                    Set<SubjectType> types = EnumSet.noneOf(SubjectType.class);
+                    for (String type : value.split(",")) {
+                        types.add(parseEnum(SubjectType.class, type));
+                    }
+                    target.setSubjectTypes(types);
+                }
+                default -> throw new IllegalArgumentException("unknown key [" + key + "]");
+            }
+        }
+        if (!keys.contains("name") || target.getName().isBlank()
+            || !keys.contains("root") || target.getRoot().isBlank()) {
+            throw new IllegalArgumentException("name and root are required");
+        }
+        return target;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + type.getSimpleName() + " ["
+                + value.trim() + "]", e);
+        }
+    }
+
+    /**
+     * Whether the roots of both targets are the same dir or one is inside the other,
+     * compared as written, relative roots are not resolved.
+     */
+    public boolean overlaps(OutputTarget other) {
+        Path path = Path.of(root).normalize();
+        Path otherPath = Path.of(other.root).normalize();
+        return path.startsWith(otherPath) || otherPath.startsWith(path);
+    }
+
+    public boolean accepts(SubjectType type) {
+        return type != null && subjectTypes != null && subjectTypes.contains(type);
+    }
+
+    public boolean accepts(Subject subject) {
+        return accepts(subject.getType(), subject.getNsfw());
+    }
+
+    public boolean accepts(SubjectType type, Boolean nsfwFlag) {
+        if (!accepts(type)) {
+            return false;
+        }
+        boolean nsfwSubject = Boolean.TRUE.equals(nsfwFlag);
+        return switch (nsfw) {
+            case ALL -> true;
+            case EXCLUDE -> !nsfwSubject;
+            case ONLY -> nsfwSubject;
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package run.ikaros.jellyfin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Orphans found in the media dir by one reconciliation pass.
+ */
+public class ReconcileReport {
+    private static final int MAX_LISTED_PATHS = 500;
+    private final boolean dryRun;
+    private final LongAdder orphanDirs = new LongAdder();
+    private final LongAdder orphanFiles = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder manifestEntriesRemoved = new LongAdder();
+    private final List<String> orphanPaths = Collections.synchronizedList(new ArrayList<>());
+
+    public ReconcileReport(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    void orphanDir(String path) {
+        orphanDirs.increment();
+        listPath(path);
+    }
+
+    void orphanFile(String path) {
+        orphanFiles.increment();
+        listPath(path);
+    }
+
+    void removed() {
+        removed.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void manifestEntryRemoved() {
+        manifestEntriesRemoved.increment();
+    }
+
+    private void listPath(String path) {
+        if (orphanPaths.size() < MAX_LISTED_PATHS) {
+            orphanPaths.add(path);
+        }
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public long getOrphanDirs() {
+        return orphanDirs.sum();
+    }
+
+    public long getOrphanFiles() {
+        return orphanFiles.sum();
+    }
+
+    /**
+     * Paths removed or moved away, orphan dirs count once.
+     */
+    public long getRemoved() {
+        return removed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getManifestEntriesRemoved() {
+        return manifestEntriesRemoved.sum();
+    }
+
+    /**
+     * Orphan dirs and files found, at most the first 500.
+     */
+    public List<String> getOrphanPaths() {
+        synchronized (orphanPaths) {
+            return List.copyOf(orphanPaths);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReconcileReport{"
+            + "dryRun=" + dryRun
+            + ", orphanDirs=" + getOrphanDirs()
+            + ", orphanFiles=" + getOrphanFiles()
+            + ", removed=" + getRemoved()
+            + ", failed=" + getFailed()
+            + ", manifestEntriesRemoved=" + getManifestEntriesRemoved()
+            + '}';
+    }
+}
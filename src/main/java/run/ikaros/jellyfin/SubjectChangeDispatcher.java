@@ -0,0 +1,110 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Collects changed subject ids and hands them to the sync in coalesced batches,
+ * so a burst of changes of one subject regenerates its dir only once.
+ */
+@Slf4j
+@Component
+public class SubjectChangeDispatcher {
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final Duration MAX_BUSY_RETRY_DELAY = Duration.ofMinutes(1);
+    private final Sinks.Many<Long> changes =
+        Sinks.many().multicast().onBackpressureBuffer(Queues.SMALL_BUFFER_SIZE, false);
+    private final SyncConfig syncConfig;
+    /**
+     * Subjects a running sync turned away, guarded by this.
+     */
+    private final Set<Long> busy = new LinkedHashSet<>();
+    private Disposable busyRetry;
+    private int busyRetries;
+
+    public SubjectChangeDispatcher(SyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+    }
+
+    /**
+     * Queue a changed subject. Called from the watcher, the endpoint and the sync
+     * threads, emits are serialized as the sink rejects concurrent ones.
+     */
+    public synchronized void notifyChanged(Long subjectId) {
+        if (subjectId == null) {
+            return;
+        }
+        Sinks.EmitResult result = changes.tryEmitNext(subjectId);
+        if (result.isFailure()) {
+            log.warn("drop subject change [{}], emit result: {}.", subjectId, result);
+        }
+    }
+
+    /**
+     * Start dispatching. A batch the handler completes empty for, because another
+     * sync is running, is kept aside until {@link #retryBusy()} or a backoff delay.
+     *
+     * @param handler regenerates the given subjects
+     * @return disposable to stop dispatching
+     */
+    public Disposable start(Function<Set<Long>, Mono<SyncReport>> handler) {
+        Duration debounce = Duration.ofSeconds(syncConfig.getChangeDebounceSeconds());
+        return changes.asFlux()
+            .bufferTimeout(MAX_BATCH_SIZE, debounce, LinkedHashSet::new)
+            .onBackpressureBuffer()
+            .concatMap(subjectIds -> handler.apply(subjectIds)
+                .doOnNext(report -> {
+                    log.debug("sync changed subjects {} finished: {}", subjectIds, report);
+                    synchronized (this) {
+                        busyRetries = 0;
+                    }
+                })
+                .switchIfEmpty(Mono.fromRunnable(() -> deferBusy(subjectIds)))
+                .onErrorResume(e -> {
+                    log.warn("sync changed subjects {} fail.", subjectIds, e);
+                    return Mono.empty();
+                }))
+            .subscribe();
+    }
+
+    /**
+     * Queue the subjects turned away by a busy sync again, called when a sync finished.
+     */
+    public synchronized void retryBusy() {
+        if (busyRetry != null) {
+            busyRetry.dispose();
+            busyRetry = null;
+        }
+        List<Long> subjectIds = List.copyOf(busy);
+        busy.clear();
+        subjectIds.forEach(this::notifyChanged);
+    }
+
+    /**
+     * Keep a busy batch aside, requeued by the end of the running sync or at the latest
+     * after a delay doubling with each busy retry in a row.
+     */
+    private synchronized void deferBusy(Set<Long> subjectIds) {
+        busy.addAll(subjectIds);
+        if (busyRetry != null) {
+            return;
+        }
+        Duration delay = Duration.ofSeconds(Math.max(1, syncConfig.getChangeDebounceSeconds()))
+            .multipliedBy(1L << Math.min(busyRetries++, 6));
+        if (delay.compareTo(MAX_BUSY_RETRY_DELAY) > 0) {
+            delay = MAX_BUSY_RETRY_DELAY;
+        }
+        log.debug("sync busy, retry {} changed subjects in {}.", busy.size(), delay);
+        busyRetry = Mono.delay(delay).subscribe(tick -> retryBusy());
+    }
+}
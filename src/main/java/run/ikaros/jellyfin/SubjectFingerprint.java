@@ -0,0 +1,130 @@
+package run.ikaros.jellyfin;
+
+import run.ikaros.api.core.attachment.Attachment;
+import run.ikaros.api.core.subject.Episode;
+import run.ikaros.api.core.subject.EpisodeResource;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectMeta;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Content fingerprint of everything a subject media dir is generated from:
+ * subject metadata, the episode list and the fsPath/size/updateTime of every
+ * episode, subtitle and artwork image attachment, plus where each episode file currently is.
+ */
+public class SubjectFingerprint {
+    private static final byte SEPARATOR = 0;
+
+    public static String of(SubjectSnapshot snapshot) {
+        return of(snapshot, attachment -> null);
+    }
+
+    /**
+     * @param sourceState state of an episode's source file, e.g. local or remote,
+     *                    a change of it changes the fingerprint
+     */
+    public static String of(SubjectSnapshot snapshot,
+                            Function<Attachment, String> sourceState) {
+        MessageDigest digest = newDigest();
+        Subject subject = snapshot.getSubject();
+        update(digest, subject.getId());
+        update(digest, subject.getType());
+        update(digest, subject.getName());
+        update(digest, subject.getNameCn());
+        update(digest, subject.getSummary());
+        update(digest, subject.getNsfw());
+        update(digest, subject.getAirTime());
+        update(digest, subject.getCover());
+        update(digest, snapshot.bgmTvId().orElse(""));
+
+        snapshot.getImages().values().stream()
+            .flatMap(List::stream)
+            .sorted(Comparator.comparing(Attachment::getId,
+                Comparator.nullsFirst(Comparator.naturalOrder())))
+            .forEach(image -> update(digest, image));
+
+        List<Episode> episodes = subject.getEpisodes() == null ? List.of()
+            : subject.getEpisodes().stream()
+            .sorted(Comparator.comparing(Episode::getId,
+                Comparator.nullsFirst(Comparator.naturalOrder())))
+            .toList();
+        for (Episode episode : episodes) {
+            update(digest, episode.getId());
+            update(digest, episode.getName());
+            update(digest, episode.getNameCn());
+            update(digest, episode.getDescription());
+            update(digest, episode.getSequence());
+            update(digest, episode.getGroup());
+            if (episode.getResources() == null) {
+                continue;
+            }
+            for (EpisodeResource resource : episode.getResources()) {
+                Long attachmentId = resource.getAttachmentId();
+                update(digest, attachmentId);
+                snapshot.attachmentOf(attachmentId).ifPresent(att -> {
+                    update(digest, att);
+                    update(digest, sourceState.apply(att));
+                });
+                for (Attachment subtitle : snapshot.subtitlesOf(attachmentId)) {
+                    update(digest, subtitle);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Fingerprint of the subject fields a scan page lists, equal for a {@link SubjectMeta}
+     * and the {@link Subject} of the same data.
+     */
+    public static String ofMeta(SubjectMeta subjectMeta) {
+        return ofMeta(subjectMeta.getId(), subjectMeta.getType(), subjectMeta.getName(),
+            subjectMeta.getNameCn(), subjectMeta.getSummary(), subjectMeta.getNsfw(),
+            subjectMeta.getAirTime(), subjectMeta.getCover());
+    }
+
+    public static String ofMeta(Subject subject) {
+        return ofMeta(subject.getId(), subject.getType(), subject.getName(),
+            subject.getNameCn(), subject.getSummary(), subject.getNsfw(),
+            subject.getAirTime(), subject.getCover());
+    }
+
+    private static String ofMeta(Object... fields) {
+        MessageDigest digest = newDigest();
+        for (Object field : fields) {
+            update(digest, field);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Attachment attachment) {
+        update(digest, attachment.getId());
+        update(digest, attachment.getName());
+        update(digest, attachment.getFsPath());
+        update(digest, attachment.getUrl());
+        update(digest, attachment.getSize());
+        update(digest, attachment.getUpdateTime());
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        if (value != null) {
+            digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update(SEPARATOR);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
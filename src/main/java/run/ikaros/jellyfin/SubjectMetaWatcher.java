@@ -0,0 +1,140 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.subject.Episode;
+import run.ikaros.api.core.subject.EpisodeResource;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectOperate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects added and edited subjects by polling the cheap subject meta pages and
+ * comparing a hash of the fields a media dir depends on, then reports them to
+ * {@link SubjectChangeDispatcher}.
+ * Episode attachment bindings are not part of the metas, each poll also fetches a
+ * rotating batch of subjects and compares a hash of their bindings, so a bound or
+ * unbound episode file is picked up after at most one rotation.
+ * The host api does not publish subject or attachment events to plugins, this
+ * is the closest change feed available without fetching every subject.
+ */
+@Slf4j
+@Component
+public class SubjectMetaWatcher {
+    private final SubjectScanner subjectScanner;
+    private final SubjectOperate subjectOperate;
+    private final SubjectChangeDispatcher dispatcher;
+    private final SyncConfig syncConfig;
+    private final Map<Long, String> metaHashes = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> bindingHashes = new ConcurrentHashMap<>();
+    private volatile boolean primed;
+    private volatile long bindingCursor = Long.MIN_VALUE;
+
+    public SubjectMetaWatcher(SubjectScanner subjectScanner, SubjectOperate subjectOperate,
+                              SubjectChangeDispatcher dispatcher, SyncConfig syncConfig) {
+        this.subjectScanner = subjectScanner;
+        this.subjectOperate = subjectOperate;
+        this.dispatcher = dispatcher;
+        this.syncConfig = syncConfig;
+    }
+
+    public Disposable watch() {
+        return Flux.interval(Duration.ofSeconds(syncConfig.getChangePollSeconds()))
+            .onBackpressureDrop()
+            .concatMap(tick -> poll()
+                .onErrorResume(e -> {
+                    log.warn("poll subject metas fail.", e);
+                    return Mono.empty();
+                }), 1)
+            .subscribe();
+    }
+
+    private Mono<Void> poll() {
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        return subjectScanner.scan(syncConfig.getPageSize(),
+                subjectMeta -> syncConfig.getTargets().stream()
+                    .anyMatch(target -> target.accepts(subjectMeta.getType())))
+            .doOnNext(subjectMeta -> {
+                seen.add(subjectMeta.getId());
+                String hash = SubjectFingerprint.ofMeta(subjectMeta);
+                String previous = metaHashes.put(subjectMeta.getId(), hash);
+                // first poll only records, existing subjects are the full sync's job
+                if (primed && !hash.equals(previous)) {
+                    log.debug("subject meta changed: [{}].", subjectMeta.getName());
+                    dispatcher.notifyChanged(subjectMeta.getId());
+                }
+            })
+            .then(Mono.fromRunnable(() -> {
+                // removed subjects, or subjects of a type no target accepts anymore
+                metaHashes.keySet().retainAll(seen);
+                bindingHashes.keySet().retainAll(seen);
+                primed = true;
+            }))
+            .then(Mono.defer(this::pollBindings));
+    }
+
+    /**
+     * Compare the bindings of the next batch of subjects in id order, wrapping around
+     * at the end.
+     */
+    private Mono<Void> pollBindings() {
+        int batchSize = syncConfig.getBindingPollBatchSize();
+        if (batchSize <= 0 || metaHashes.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Long> subjectIds = new ArrayList<>(metaHashes.keySet());
+        subjectIds.sort(null);
+        List<Long> batch = new ArrayList<>(batchSize);
+        for (Long subjectId : subjectIds) {
+            if (subjectId > bindingCursor && batch.size() < batchSize) {
+                batch.add(subjectId);
+            }
+        }
+        for (int i = 0; batch.size() < Math.min(batchSize, subjectIds.size()); i++) {
+            if (!batch.contains(subjectIds.get(i))) {
+                batch.add(subjectIds.get(i));
+            }
+        }
+        bindingCursor = batch.get(batch.size() - 1);
+        return Flux.fromIterable(batch)
+            .flatMap(subjectId -> subjectOperate.findById(subjectId)
+                .onErrorResume(e -> {
+                    log.debug("fetch subject [{}] bindings fail.", subjectId, e);
+                    return Mono.empty();
+                }), syncConfig.getSubjectConcurrency())
+            .doOnNext(subject -> {
+                Integer hash = bindingHash(subject);
+                Integer previous = bindingHashes.put(subject.getId(), hash);
+                // first look only records, like the first meta poll
+                if (previous != null && !hash.equals(previous)) {
+                    log.debug("subject episode bindings changed: [{}].", subject.getName());
+                    dispatcher.notifyChanged(subject.getId());
+                }
+            })
+            .then();
+    }
+
+    private static Integer bindingHash(Subject subject) {
+        List<Object> bindings = new ArrayList<>();
+        if (subject.getEpisodes() != null) {
+            for (Episode episode : subject.getEpisodes()) {
+                bindings.add(episode.getId());
+                if (episode.getResources() != null) {
+                    for (EpisodeResource resource : episode.getResources()) {
+                        bindings.add(resource.getAttachmentId());
+                    }
+                }
+            }
+        }
+        return bindings.hashCode();
+    }
+}
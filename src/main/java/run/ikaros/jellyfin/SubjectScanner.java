@@ -0,0 +1,71 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectMeta;
+import run.ikaros.api.core.subject.SubjectOperate;
+import run.ikaros.api.wrap.PagingWrap;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Walks all subjects page by page. The next page is only requested once
+ * downstream has consumed the previous one, so at most about one page of
+ * subject metas is held in memory regardless of library size.
+ * A short page does not end the scan, the host may cap the page size below the
+ * requested one, only an empty page does.
+ */
+@Slf4j
+@Component
+public class SubjectScanner {
+    private final SubjectOperate subjectOperate;
+
+    public SubjectScanner(SubjectOperate subjectOperate) {
+        this.subjectOperate = subjectOperate;
+    }
+
+    /**
+     * Scan all subjects.
+     *
+     * @param pageSize subjects fetched per page
+     * @param filter   applied to each page as it arrives
+     * @return matching subject metas in page order
+     */
+    public Flux<SubjectMeta> scan(int pageSize, Predicate<SubjectMeta> filter) {
+        Assert.isTrue(pageSize > 0, "'pageSize' must be greater than 0.");
+        AtomicReference<Long> previousFirstId = new AtomicReference<>();
+        return Flux.range(1, Integer.MAX_VALUE)
+            .concatMap(page -> fetchPage(page, pageSize), 1)
+            .takeWhile(metas -> !metas.isEmpty() && !isRepeated(metas, previousFirstId))
+            .concatMapIterable(metas -> metas, 1)
+            .filter(filter);
+    }
+
+    /**
+     * Whether a page starts with the subject the previous one started with, a host
+     * ignoring the page number would otherwise be scanned forever.
+     */
+    private static boolean isRepeated(List<SubjectMeta> metas,
+                                      AtomicReference<Long> previousFirstId) {
+        Long firstId = metas.get(0).getId();
+        if (firstId != null && firstId.equals(previousFirstId.getAndSet(firstId))) {
+            log.warn("subject page repeats the previous one, stop scan at subject [{}].",
+                firstId);
+            return true;
+        }
+        return false;
+    }
+
+    private Mono<List<SubjectMeta>> fetchPage(int page, int pageSize) {
+        return subjectOperate.findAllByPageable(new PagingWrap<Subject>(page, pageSize, 0, null))
+            .collectList()
+            .doOnNext(metas -> log.debug("scan subject page [{}], size: [{}].",
+                page, metas.size()));
+    }
+}
@@ -0,0 +1,63 @@
+package run.ikaros.jellyfin;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import run.ikaros.api.core.attachment.Attachment;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectSync;
+import run.ikaros.api.store.enums.SubjectSyncPlatform;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A subject with every attachment its media dir depends on already resolved,
+ * so generating the dir needs no further remote calls.
+ */
+@Getter
+@AllArgsConstructor
+public class SubjectSnapshot {
+    private final Subject subject;
+    /**
+     * episode resource attachment id -> attachment.
+     */
+    private final Map<Long, Attachment> attachments;
+    /**
+     * video attachment id -> subtitle attachments.
+     */
+    private final Map<Long, List<Attachment>> subtitles;
+    /**
+     * parent dir attachment id -> image attachments in the dir of the episode files.
+     */
+    private final Map<Long, List<Attachment>> images;
+
+    public Optional<Attachment> attachmentOf(Long attachmentId) {
+        return Optional.ofNullable(attachments.get(attachmentId));
+    }
+
+    public List<Attachment> subtitlesOf(Long attachmentId) {
+        return subtitles.getOrDefault(attachmentId, List.of());
+    }
+
+    /**
+     * Images in the same dir as attachment.
+     */
+    public List<Attachment> imagesNextTo(Attachment attachment) {
+        if (attachment == null || attachment.getParentId() == null) {
+            return List.of();
+        }
+        return images.getOrDefault(attachment.getParentId(), List.of());
+    }
+
+    public Optional<String> bgmTvId() {
+        List<SubjectSync> syncs = subject.getSyncs();
+        if (syncs == null) {
+            return Optional.empty();
+        }
+        return syncs.stream()
+            .filter(subjectSync -> SubjectSyncPlatform.BGM_TV.equals(subjectSync.getPlatform()))
+            .map(SubjectSync::getPlatformId)
+            .findFirst();
+    }
+}
@@ -0,0 +1,411 @@
+package run.ikaros.jellyfin;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Tunables of the media dir sync, read at the start of every tick.
+ * Set from the plugin ConfigMap through {@link #apply(Map)}, keys are the field names.
+ */
+@Slf4j
+@Data
+@Component
+public class SyncConfig {
+    /**
+     * Interval of the full sync sweep over all subjects.
+     */
+    private volatile int fullSyncMinutes = 15;
+    /**
+     * Spring cron expression of the full sync sweep, replaces fullSyncMinutes when set.
+     */
+    private volatile String fullSyncCron = "";
+    /**
+     * Comma separated time windows without full syncs, e.g. {@code 19:00-23:30,07:00-08:00}.
+     * A window may cross midnight. The warm start sync after plugin start is not affected.
+     */
+    private volatile String quietHours = "";
+    /**
+     * Hours a full sync trusts the manifest of a subject whose listed metadata did not
+     * change and skips fetching it. Episode files bound, moved or edited meanwhile are
+     * picked up once they elapse, 0 fetches every subject on every full sync.
+     */
+    private volatile int verifyHours = 24;
+    /**
+     * Delay of the warm start sync after plugin start, gives the host time to settle.
+     * Read once when the plugin starts.
+     */
+    private volatile int warmStartDelaySeconds = 10;
+    /**
+     * Subjects aired or updated within these days are synced first by the warm start.
+     */
+    private volatile int recentDays = 30;
+    /**
+     * Interval of polling subject metas for changes.
+     */
+    private volatile int changePollSeconds = 60;
+    /**
+     * Subjects whose episode bindings are compared per change poll, 0 disables it.
+     */
+    private volatile int bindingPollBatchSize = 50;
+    /**
+     * How long changes are collected before the changed subjects are synced.
+     * Read once when the plugin starts.
+     */
+    private volatile int changeDebounceSeconds = 5;
+    /**
+     * Subject metas fetched per page when scanning the library.
+     */
+    private volatile int pageSize = 100;
+    /**
+     * Subjects fetched and resolved at the same time.
+     */
+    private volatile int subjectConcurrency = 4;
+    /**
+     * Attachment lookups in flight per subject being resolved.
+     */
+    private volatile int attachmentConcurrency = 8;
+    /**
+     * Attachments listed per page when loading the children of an episode's parent dir.
+     */
+    private volatile int attachmentPageSize = 200;
+    /**
+     * Max attachments memoized during one sync run.
+     */
+    private volatile int attachmentCacheSize = 10000;
+    /**
+     * Subject dirs written to the filesystem at the same time.
+     */
+    private volatile int fsConcurrency = 2;
+    /**
+     * Storage type of the media dir, sizes the fs worker pool when ioWorkers is 0.
+     */
+    private volatile StorageType storageType = StorageType.SSD;
+    /**
+     * Fs worker threads, 0 means derive it from storageType.
+     * A bulk build writes this many subject dirs at the same time.
+     */
+    private volatile int ioWorkers = 0;
+    /**
+     * Subjects generated between two manifest saves.
+     */
+    private volatile int checkpointInterval = 50;
+    /**
+     * What a full sync does with media dir entries of removed subjects, episodes and subtitles.
+     */
+    private volatile OrphanAction orphanAction = OrphanAction.DELETE;
+    /**
+     * Only report orphans, the media dir is left untouched.
+     */
+    private volatile boolean orphanDryRun = false;
+    /**
+     * Max orphan files deleted per second, 0 means unlimited.
+     */
+    private volatile int orphanDeletesPerSecond = 200;
+    /**
+     * Ways to put source files into the media dir, tried in order, comma separated
+     * from hardlink, reflink, symlink and copy.
+     */
+    private volatile String linkStrategies = "hardlink,reflink,symlink,copy";
+    /**
+     * What becomes of an episode whose file is no longer on this host, e.g. pushed to a remote.
+     */
+    private volatile RemoteEpisodeMode remoteEpisodeMode = RemoteEpisodeMode.DELETE;
+    /**
+     * Max width of a poster, a wider source is scaled down to a jpeg.
+     */
+    private volatile int posterMaxWidth = 1000;
+    /**
+     * Max width of a fanart, a wider source is scaled down to a jpeg.
+     */
+    private volatile int fanartMaxWidth = 1920;
+    /**
+     * Max width of an episode thumbnail, a wider source is scaled down to a jpeg.
+     */
+    private volatile int thumbMaxWidth = 640;
+    /**
+     * Workers scaling artwork, 0 means one per cpu.
+     */
+    private volatile int artworkWorkers = 0;
+    /**
+     * Memory kept for scaled artwork, shared by the output targets of a subject.
+     */
+    private volatile int artworkCacheMb = 64;
+    /**
+     * Jellyfin servers told about updated subject dirs after each sync.
+     */
+    private volatile List<JellyfinServer> jellyfinServers = List.of();
+    /**
+     * Delay before updated dirs are sent, updates arriving meanwhile are sent together.
+     */
+    private volatile int notifyDelaySeconds = 5;
+    /**
+     * Max dirs per update request.
+     */
+    private volatile int notifyBatchSize = 100;
+    /**
+     * Pause between two update requests.
+     */
+    private volatile int notifyIntervalMillis = 1000;
+    /**
+     * Retries of an update request failing with a server error or a timeout.
+     */
+    private volatile int notifyMaxRetries = 3;
+    /**
+     * Libraries generated by the sync, by default the jellyfin dir in the ikaros work dir.
+     * The first is configured by outputRoot, further ones by outputTargets.
+     */
+    private volatile List<OutputTarget> targets = List.of(new OutputTarget());
+
+    /**
+     * Apply the plugin ConfigMap data. A missing or blank key resets the field to its
+     * default, an invalid value keeps the current one.
+     */
+    public void apply(Map<String, String> data) {
+        Map<String, String> values = data == null ? Map.of() : data;
+        SyncConfig defaults = new SyncConfig();
+        fullSyncMinutes = intValue(values, "fullSyncMinutes", fullSyncMinutes,
+            defaults.fullSyncMinutes, 1);
+        fullSyncCron = textValue(values, "fullSyncCron", fullSyncCron, defaults.fullSyncCron,
+            CronExpression::isValidExpression);
+        quietHours = textValue(values, "quietHours", quietHours, defaults.quietHours,
+            value -> parseQuietHours(value) != null);
+        verifyHours = intValue(values, "verifyHours", verifyHours, defaults.verifyHours, 0);
+        warmStartDelaySeconds = intValue(values, "warmStartDelaySeconds",
+            warmStartDelaySeconds, defaults.warmStartDelaySeconds, 0);
+        recentDays = intValue(values, "recentDays", recentDays, defaults.recentDays, 0);
+        changePollSeconds = intValue(values, "changePollSeconds", changePollSeconds,
+            defaults.changePollSeconds, 1);
+        bindingPollBatchSize = intValue(values, "bindingPollBatchSize", bindingPollBatchSize,
+            defaults.bindingPollBatchSize, 0);
+        changeDebounceSeconds = intValue(values, "changeDebounceSeconds",
+            changeDebounceSeconds, defaults.changeDebounceSeconds, 1);
+        pageSize = intValue(values, "pageSize", pageSize, defaults.pageSize, 1);
+        subjectConcurrency = intValue(values, "subjectConcurrency", subjectConcurrency,
+            defaults.subjectConcurrency, 1);
+        attachmentConcurrency = intValue(values, "attachmentConcurrency",
+            attachmentConcurrency, defaults.attachmentConcurrency, 1);
+        attachmentPageSize = intValue(values, "attachmentPageSize", attachmentPageSize,
+            defaults.attachmentPageSize, 1);
+        attachmentCacheSize = intValue(values, "attachmentCacheSize", attachmentCacheSize,
+            defaults.attachmentCacheSize, 0);
+        fsConcurrency = intValue(values, "fsConcurrency", fsConcurrency,
+            defaults.fsConcurrency, 1);
+        ioWorkers = intValue(values, "ioWorkers", ioWorkers, defaults.ioWorkers, 0);
+        storageType = enumValue(values, "storageType", StorageType.class, storageType,
+            defaults.storageType);
+        checkpointInterval = intValue(values, "checkpointInterval", checkpointInterval,
+            defaults.checkpointInterval, 1);
+        orphanAction = enumValue(values, "orphanAction", OrphanAction.class, orphanAction,
+            defaults.orphanAction);
+        orphanDryRun = booleanValue(values, "orphanDryRun", orphanDryRun, defaults.orphanDryRun);
+        orphanDeletesPerSecond = intValue(values, "orphanDeletesPerSecond",
+            orphanDeletesPerSecond, defaults.orphanDeletesPerSecond, 0);
+        linkStrategies = textValue(values, "linkStrategies", linkStrategies,
+            defaults.linkStrategies, FileLinker::isValidStrategies);
+        remoteEpisodeMode = enumValue(values, "remoteEpisodeMode", RemoteEpisodeMode.class,
+            remoteEpisodeMode, defaults.remoteEpisodeMode);
+        posterMaxWidth = intValue(values, "posterMaxWidth", posterMaxWidth,
+            defaults.posterMaxWidth, 1);
+        fanartMaxWidth = intValue(values, "fanartMaxWidth", fanartMaxWidth,
+            defaults.fanartMaxWidth, 1);
+        thumbMaxWidth = intValue(values, "thumbMaxWidth", thumbMaxWidth,
+            defaults.thumbMaxWidth, 1);
+        artworkWorkers = intValue(values, "artworkWorkers", artworkWorkers,
+            defaults.artworkWorkers, 0);
+        artworkCacheMb = intValue(values, "artworkCacheMb", artworkCacheMb,
+            defaults.artworkCacheMb, 0);
+        String root = textValue(values, "outputRoot", targets.isEmpty()
+                ? defaults.targets.get(0).getRoot() : targets.get(0).getRoot(),
+            defaults.targets.get(0).getRoot(), value -> true);
+        List<OutputTarget> updated = new ArrayList<>();
+        updated.add((targets.isEmpty() ? new OutputTarget() : targets.get(0)).withRoot(root));
+        updated.addAll(parseTargets(values.get("outputTargets"), updated.get(0)));
+        targets = List.copyOf(updated);
+        String jellyfinUrl = values.get("jellyfinUrl");
+        jellyfinServers = jellyfinUrl == null || jellyfinUrl.isBlank() ? List.of()
+            : List.of(new JellyfinServer()
+            .setUrl(jellyfinUrl.trim())
+            .setApiKey(values.getOrDefault("jellyfinApiKey", "").trim())
+            .setPathMapping(values.getOrDefault("jellyfinPathMapping", "").trim()));
+        notifyDelaySeconds = intValue(values, "notifyDelaySeconds", notifyDelaySeconds,
+            defaults.notifyDelaySeconds, 0);
+        notifyBatchSize = intValue(values, "notifyBatchSize", notifyBatchSize,
+            defaults.notifyBatchSize, 1);
+        notifyIntervalMillis = intValue(values, "notifyIntervalMillis", notifyIntervalMillis,
+            defaults.notifyIntervalMillis, 0);
+        notifyMaxRetries = intValue(values, "notifyMaxRetries", notifyMaxRetries,
+            defaults.notifyMaxRetries, 0);
+    }
+
+    /**
+     * Extra output targets, one {@link OutputTarget#parse(String)} form per line. A line
+     * that does not parse, or whose name or root is taken by an earlier target, is skipped.
+     */
+    private static List<OutputTarget> parseTargets(String value, OutputTarget first) {
+        List<OutputTarget> parsed = new ArrayList<>();
+        if (value == null || value.isBlank()) {
+            return parsed;
+        }
+        for (String line : value.split("\\R")) {
+            if (line.isBlank() || line.trim().startsWith("#")) {
+                continue;
+            }
+            OutputTarget target;
+            try {
+                target = OutputTarget.parse(line);
+            } catch (IllegalArgumentException e) {
+                log.warn("ignore invalid jellyfin output target [{}]: {}.", line.trim(),
+                    e.getMessage());
+                continue;
+            }
+            boolean taken = Stream.concat(Stream.of(first), parsed.stream())
+                .anyMatch(other -> other.getName().equals(target.getName())
+                    || other.overlaps(target));
+            if (taken) {
+                log.warn("ignore jellyfin output target [{}], its name or root is taken "
+                    + "by another target.", line.trim());
+                continue;
+            }
+            parsed.add(target);
+        }
+        return parsed;
+    }
+
+    /**
+     * Whether time falls into one of the quietHours windows.
+     */
+    public boolean isQuietAt(LocalTime time) {
+        List<LocalTime[]> windows = parseQuietHours(quietHours);
+        if (windows == null) {
+            return false;
+        }
+        for (LocalTime[] window : windows) {
+            boolean quiet = window[0].isBefore(window[1])
+                ? !time.isBefore(window[0]) && time.isBefore(window[1])
+                : !time.isBefore(window[0]) || time.isBefore(window[1]);
+            if (quiet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<LocalTime[]> parseQuietHours(String value) {
+        List<LocalTime[]> windows = new ArrayList<>();
+        if (value == null || value.isBlank()) {
+            return windows;
+        }
+        for (String window : value.split(",")) {
+            String[] bounds = window.trim().split("-");
+            if (bounds.length != 2) {
+                return null;
+            }
+            try {
+                windows.add(new LocalTime[] {LocalTime.parse(bounds[0].trim()),
+                    LocalTime.parse(bounds[1].trim())});
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return windows;
+    }
+
+    private static int intValue(Map<String, String> values, String key, int current,
+                                int defaultValue, int min) {
+        String value = values.get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = new BigDecimal(value.trim()).intValueExact();
+            if (parsed >= min) {
+                return parsed;
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            // fall through
+        }
+        log.warn("ignore invalid jellyfin plugin config [{}]=[{}].", key, value);
+        return current;
+    }
+
+    private static String textValue(Map<String, String> values, String key, String current,
+                                    String defaultValue, Predicate<String> valid) {
+        String value = values.get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        if (valid.test(value.trim())) {
+            return value.trim();
+        }
+        log.warn("ignore invalid jellyfin plugin config [{}]=[{}].", key, value);
+        return current;
+    }
+
+    private static boolean booleanValue(Map<String, String> values, String key,
+                                        boolean current, boolean defaultValue) {
+        String value = values.get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        if ("true".equalsIgnoreCase(value.trim()) || "false".equalsIgnoreCase(value.trim())) {
+            return Boolean.parseBoolean(value.trim());
+        }
+        log.warn("ignore invalid jellyfin plugin config [{}]=[{}].", key, value);
+        return current;
+    }
+
+    private static <E extends Enum<E>> E enumValue(Map<String, String> values, String key,
+                                                   Class<E> type, E current, E defaultValue) {
+        String value = textValue(values, key, current.name(), defaultValue.name(),
+            text -> parseEnum(type, text) != null);
+        return parseEnum(type, value);
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public enum StorageType {
+        SSD,
+        HDD
+    }
+
+    public enum RemoteEpisodeMode {
+        /**
+         * Delete the episode file and nfo from the media dir.
+         */
+        DELETE,
+        /**
+         * Keep the nfo and replace the episode file by a .strm file streaming it
+         * from the host's external url.
+         */
+        STRM
+    }
+
+    public enum OrphanAction {
+        /**
+         * Delete orphan dirs and files.
+         */
+        DELETE,
+        /**
+         * Move orphan subject dirs into the media dir's .orphans dir, orphan files are deleted.
+         */
+        QUARANTINE
+    }
+}
@@ -0,0 +1,60 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.setting.ConfigMap;
+import run.ikaros.api.custom.ReactiveCustomClient;
+import run.ikaros.api.plugin.event.PluginConfigMapChangeEvent;
+
+/**
+ * Keeps {@link SyncConfig} in line with the plugin ConfigMap and reschedules the
+ * running sync when it changes, no plugin restart needed.
+ */
+@Slf4j
+@Component
+public class SyncConfigListener {
+    /**
+     * Name of the plugin and of its ConfigMap, see plugin.yaml.
+     */
+    static final String PLUGIN_NAME = "PluginJellyfin";
+
+    private final ReactiveCustomClient customClient;
+    private final SyncConfig syncConfig;
+    private final MediaDirInit mediaDirInit;
+
+    public SyncConfigListener(ReactiveCustomClient customClient, SyncConfig syncConfig,
+                              MediaDirInit mediaDirInit) {
+        this.customClient = customClient;
+        this.syncConfig = syncConfig;
+        this.mediaDirInit = mediaDirInit;
+    }
+
+    /**
+     * Apply the stored ConfigMap, completes empty when there is none yet.
+     */
+    public Mono<Void> load() {
+        return customClient.findOne(ConfigMap.class, PLUGIN_NAME)
+            .doOnNext(this::apply)
+            .onErrorResume(e -> {
+                log.warn("load jellyfin plugin config fail, keep current config.", e);
+                return Mono.empty();
+            })
+            .then();
+    }
+
+    @EventListener
+    public void onConfigMapChange(PluginConfigMapChangeEvent event) {
+        if (!PLUGIN_NAME.equals(event.getPluginId())) {
+            return;
+        }
+        apply(event.getConfigMap());
+    }
+
+    private void apply(ConfigMap configMap) {
+        syncConfig.apply(configMap == null ? null : configMap.getData());
+        log.info("apply jellyfin plugin config: {}.", syncConfig);
+        mediaDirInit.reschedule();
+    }
+}
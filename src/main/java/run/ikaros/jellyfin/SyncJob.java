@@ -0,0 +1,166 @@
+package run.ikaros.jellyfin;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A sync triggered through the endpoint, see {@link SyncJobManager}.
+ * While queued it absorbs further triggers of the same kind.
+ */
+public class SyncJob {
+    private final String id;
+    private final boolean dryRun;
+    private final Instant submitTime = Instant.now();
+    private final Sinks.Many<SyncJobEvent> events = Sinks.many().replay().latest();
+    private Type type;
+    private final Set<Long> subjectIds = new TreeSet<>();
+    private volatile State state = State.QUEUED;
+    private volatile Instant startTime;
+    private volatile Instant finishTime;
+    private volatile SyncReport report;
+    private volatile String error;
+
+    SyncJob(String id, Collection<Long> subjectIds, boolean dryRun) {
+        this.id = id;
+        this.dryRun = dryRun;
+        this.type = subjectIds == null ? Type.FULL : Type.SUBJECTS;
+        if (subjectIds != null) {
+            this.subjectIds.addAll(subjectIds);
+        }
+        emit(State.QUEUED.name());
+    }
+
+    public enum Type {
+        FULL,
+        SUBJECTS
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
+
+    /**
+     * Merge another trigger into this queued job, null subject ids turn it into a full sync.
+     */
+    synchronized void merge(Collection<Long> subjectIds) {
+        if (subjectIds == null) {
+            type = Type.FULL;
+            this.subjectIds.clear();
+        } else if (type == Type.SUBJECTS) {
+            this.subjectIds.addAll(subjectIds);
+        }
+    }
+
+    /**
+     * Mark the job running.
+     *
+     * @return subjects to sync, null for a full sync
+     */
+    synchronized Collection<Long> start(SyncReport report) {
+        this.report = report;
+        startTime = Instant.now();
+        state = State.RUNNING;
+        emit(state.name());
+        return type == Type.FULL ? null : List.copyOf(subjectIds);
+    }
+
+    void progress() {
+        emit("PROGRESS");
+    }
+
+    void finish(SyncReport report) {
+        this.report = report;
+        end(State.FINISHED);
+    }
+
+    void fail(Throwable e) {
+        error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        end(State.FAILED);
+    }
+
+    private synchronized void end(State state) {
+        finishTime = Instant.now();
+        this.state = state;
+        emit(state.name());
+        events.tryEmitComplete();
+    }
+
+    /**
+     * Emits and completion are serialized here, the sink must not be signalled concurrently.
+     */
+    private synchronized void emit(String name) {
+        events.tryEmitNext(new SyncJobEvent(name, this));
+    }
+
+    /**
+     * Events of the job, a new subscriber first receives the latest one.
+     * Completes when the job has finished or failed.
+     */
+    Flux<SyncJobEvent> events() {
+        return events.asFlux();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public synchronized Type getType() {
+        return type;
+    }
+
+    public synchronized List<Long> getSubjectIds() {
+        return List.copyOf(subjectIds);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    @JsonIgnore
+    public boolean isDone() {
+        return state == State.FINISHED || state == State.FAILED;
+    }
+
+    public Instant getSubmitTime() {
+        return submitTime;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public Instant getFinishTime() {
+        return finishTime;
+    }
+
+    /**
+     * Live report while running, the final one when finished.
+     */
+    public SyncReport getReport() {
+        return report;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * A job state change or progress tick, name is the SSE event name.
+     */
+    public record SyncJobEvent(String name, SyncJob job) {
+    }
+}
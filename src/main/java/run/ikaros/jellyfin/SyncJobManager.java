@@ -0,0 +1,103 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Runs the syncs triggered through the endpoint one after another. Triggers arriving while
+ * a job of the same kind is still queued are merged into it, so concurrent requests for the
+ * same subject end up in one job.
+ */
+@Slf4j
+@Component
+public class SyncJobManager implements DisposableBean {
+    private static final int MAX_KEPT_JOBS = 100;
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration BUSY_RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final MediaDirInit mediaDirInit;
+    private final Sinks.Many<SyncJob> queue = Sinks.many().unicast().onBackpressureBuffer();
+    /**
+     * Queued job per dry run flag, guarded by this.
+     */
+    private final Map<Boolean, SyncJob> queued = new HashMap<>();
+    private final Map<String, SyncJob> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SyncJob> eldest) {
+            return size() > MAX_KEPT_JOBS && eldest.getValue().isDone();
+        }
+    };
+    private final Disposable worker;
+
+    public SyncJobManager(MediaDirInit mediaDirInit) {
+        this.mediaDirInit = mediaDirInit;
+        this.worker = queue.asFlux()
+            .concatMap(this::run, 1)
+            .subscribe();
+    }
+
+    /**
+     * Queue a sync, or join the queued one of the same dry run flag.
+     *
+     * @param subjectIds subjects to sync, null means a full sync of all subjects
+     */
+    public synchronized SyncJob submit(Collection<Long> subjectIds, boolean dryRun) {
+        SyncJob job = queued.get(dryRun);
+        if (job != null) {
+            job.merge(subjectIds);
+            log.debug("merge sync trigger into queued job [{}].", job.getId());
+            return job;
+        }
+        job = new SyncJob(UUID.randomUUID().toString(), subjectIds, dryRun);
+        queued.put(dryRun, job);
+        jobs.put(job.getId(), job);
+        queue.tryEmitNext(job);
+        log.debug("queue sync job [{}] of type [{}].", job.getId(), job.getType());
+        return job;
+    }
+
+    public synchronized Optional<SyncJob> get(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private Mono<Void> run(SyncJob job) {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                queued.remove(job.isDryRun(), job);
+            }
+            SyncReport report = new SyncReport(job.isDryRun());
+            Collection<Long> subjectIds = job.start(report);
+            Disposable progress = Flux.interval(PROGRESS_INTERVAL)
+                .subscribe(tick -> job.progress());
+            return mediaDirInit.sync(subjectIds, report)
+                // a scheduled sync is running, wait for it instead of dropping the job
+                .repeatWhenEmpty(attempts -> attempts.delayElements(BUSY_RETRY_DELAY))
+                .doOnNext(job::finish)
+                .doOnError(e -> {
+                    log.warn("jellyfin sync job [{}] fail.", job.getId(), e);
+                    job.fail(e);
+                })
+                .doFinally(signalType -> progress.dispose())
+                .onErrorResume(e -> Mono.empty())
+                .then();
+        });
+    }
+
+    @Override
+    public void destroy() {
+        worker.dispose();
+    }
+}
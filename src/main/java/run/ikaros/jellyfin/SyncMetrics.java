@@ -0,0 +1,61 @@
+package run.ikaros.jellyfin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.Optional;
+
+/**
+ * Instrumentation of media dir syncs. Keeps the last finished report and, when the
+ * host has micrometer and a MeterRegistry bean, publishes every run as meters.
+ */
+@Slf4j
+@Component
+public class SyncMetrics {
+    private static final boolean MICROMETER_PRESENT = ClassUtils.isPresent(
+        "io.micrometer.core.instrument.MeterRegistry", SyncMetrics.class.getClassLoader());
+
+    private final MicrometerSyncMetrics micrometer;
+    private volatile SyncReport lastReport;
+    private volatile BulkBuildProgress bulkBuildProgress;
+
+    public SyncMetrics(ApplicationContext applicationContext) {
+        this.micrometer = MICROMETER_PRESENT
+            ? MicrometerSyncMetrics.create(applicationContext) : null;
+        log.debug("jellyfin sync micrometer meters enabled: {}.", micrometer != null);
+    }
+
+    public void recordPhase(SyncReport report, SyncReport.Phase phase, long nanos) {
+        report.recordPhase(phase, nanos);
+        if (micrometer != null) {
+            micrometer.recordPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Record a finished run.
+     */
+    public void recordRun(SyncReport report) {
+        lastReport = report;
+        if (micrometer != null) {
+            micrometer.recordRun(report);
+        }
+    }
+
+    public Optional<SyncReport> lastReport() {
+        return Optional.ofNullable(lastReport);
+    }
+
+    public void setBulkBuildProgress(BulkBuildProgress bulkBuildProgress) {
+        this.bulkBuildProgress = bulkBuildProgress;
+    }
+
+    /**
+     * Progress of the running or last bulk build.
+     */
+    public Optional<BulkBuildProgress> bulkBuildProgress() {
+        return Optional.ofNullable(bulkBuildProgress);
+    }
+}
@@ -0,0 +1,273 @@
+package run.ikaros.jellyfin;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcome of a single media dir sync run.
+ */
+public class SyncReport {
+    private final Instant startTime = Instant.now();
+    private final boolean dryRun;
+    private volatile Duration duration = Duration.ZERO;
+    private final LongAdder subjectsScanned = new LongAdder();
+    private final LongAdder subjectsChanged = new LongAdder();
+    private final LongAdder subjectsSkipped = new LongAdder();
+    private final LongAdder subjectsFailed = new LongAdder();
+    private final LongAdder linksCreated = new LongAdder();
+    private final LongAdder linksFailed = new LongAdder();
+    private final LongAdder nfosWritten = new LongAdder();
+    private final LongAdder artworksWritten = new LongAdder();
+    private final LongAdder orphansRemoved = new LongAdder();
+    private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAdder> phaseCounts = new EnumMap<>(Phase.class);
+    private final Map<String, ReconcileReport> reconciles = new ConcurrentHashMap<>();
+    private final Map<Path, DirUpdate> updatedDirs = new ConcurrentHashMap<>();
+
+    public SyncReport() {
+        this(false);
+    }
+
+    /**
+     * @param dryRun the run only reports what would change, generated subjects are
+     *               counted as changed
+     */
+    public SyncReport(boolean dryRun) {
+        this.dryRun = dryRun;
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+            phaseCounts.put(phase, new LongAdder());
+        }
+    }
+
+    public enum Phase {
+        /**
+         * Fetching a subject with its episodes.
+         */
+        SUBJECT_FETCH,
+        /**
+         * Resolving the episode and subtitle attachments of a subject.
+         */
+        ATTACHMENT_RESOLVE,
+        /**
+         * Linking a single episode or subtitle file.
+         */
+        LINK,
+        /**
+         * Rendering and writing a single nfo file.
+         */
+        NFO,
+        /**
+         * Linking or scaling a single poster, fanart or episode thumbnail.
+         */
+        ARTWORK
+    }
+
+    public enum Outcome {
+        /**
+         * Fingerprint matches the manifest, nothing was touched.
+         */
+        UNCHANGED,
+        /**
+         * Subject dir was (re)generated completely.
+         */
+        GENERATED,
+        /**
+         * Some files could not be generated, subject is retried next run.
+         */
+        INCOMPLETE
+    }
+
+    /**
+     * How a subject dir was updated, named like the update types of Jellyfin.
+     */
+    public enum DirUpdate {
+        CREATED("Created"),
+        MODIFIED("Modified"),
+        DELETED("Deleted");
+
+        private final String updateType;
+
+        DirUpdate(String updateType) {
+            this.updateType = updateType;
+        }
+
+        public String getUpdateType() {
+            return updateType;
+        }
+
+        /**
+         * Combined update of a dir updated twice, a created dir stays created
+         * until it is deleted.
+         */
+        public static DirUpdate merge(DirUpdate previous, DirUpdate next) {
+            return CREATED.equals(previous) && MODIFIED.equals(next) ? previous : next;
+        }
+    }
+
+    public void subjectScanned() {
+        subjectsScanned.increment();
+    }
+
+    public void record(Outcome outcome) {
+        switch (outcome) {
+            case UNCHANGED -> subjectsSkipped.increment();
+            case GENERATED -> subjectsChanged.increment();
+            case INCOMPLETE -> subjectsFailed.increment();
+            default -> {
+            }
+        }
+    }
+
+    public void subjectFailed() {
+        subjectsFailed.increment();
+    }
+
+    public void linkCreated() {
+        linksCreated.increment();
+    }
+
+    public void linkFailed() {
+        linksFailed.increment();
+    }
+
+    public void nfoWritten() {
+        nfosWritten.increment();
+    }
+
+    public void artworkWritten() {
+        artworksWritten.increment();
+    }
+
+    public void orphanRemoved() {
+        orphansRemoved.increment();
+    }
+
+    /**
+     * Record a subject dir the run created, changed or removed.
+     */
+    public void dirUpdated(Path dir, DirUpdate update) {
+        updatedDirs.merge(dir, update, DirUpdate::merge);
+    }
+
+    public void recordPhase(Phase phase, long nanos) {
+        phaseNanos.get(phase).add(nanos);
+        phaseCounts.get(phase).increment();
+    }
+
+    public void addReconcile(String targetName, ReconcileReport reconcile) {
+        reconciles.put(targetName, reconcile);
+    }
+
+    public SyncReport finish() {
+        duration = Duration.between(startTime, Instant.now());
+        return this;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public long getSubjectsScanned() {
+        return subjectsScanned.sum();
+    }
+
+    public long getSubjectsChanged() {
+        return subjectsChanged.sum();
+    }
+
+    public long getSubjectsSkipped() {
+        return subjectsSkipped.sum();
+    }
+
+    public long getSubjectsFailed() {
+        return subjectsFailed.sum();
+    }
+
+    public long getLinksCreated() {
+        return linksCreated.sum();
+    }
+
+    public long getLinksFailed() {
+        return linksFailed.sum();
+    }
+
+    public long getNfosWritten() {
+        return nfosWritten.sum();
+    }
+
+    public long getArtworksWritten() {
+        return artworksWritten.sum();
+    }
+
+    public long getOrphansRemoved() {
+        return orphansRemoved.sum();
+    }
+
+    /**
+     * Orphan reconciliation of a full sync per output target name, empty for other syncs.
+     */
+    public Map<String, ReconcileReport> getReconciles() {
+        return Map.copyOf(reconciles);
+    }
+
+    /**
+     * Subject dirs the run created, changed or removed.
+     */
+    public Map<Path, DirUpdate> updatedDirs() {
+        return Map.copyOf(updatedDirs);
+    }
+
+    /**
+     * Total time spent per phase, summed over all operations of the phase.
+     */
+    public Map<Phase, Long> getPhaseMillis() {
+        Map<Phase, Long> millis = new EnumMap<>(Phase.class);
+        phaseNanos.forEach((phase, nanos) ->
+            millis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos.sum())));
+        return millis;
+    }
+
+    /**
+     * Count of operations per phase.
+     */
+    public Map<Phase, Long> getPhaseCounts() {
+        Map<Phase, Long> counts = new EnumMap<>(Phase.class);
+        phaseCounts.forEach((phase, count) -> counts.put(phase, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncReport{"
+            + "startTime=" + startTime
+            + (dryRun ? ", dryRun=true" : "")
+            + ", duration=" + duration
+            + ", subjectsScanned=" + getSubjectsScanned()
+            + ", subjectsChanged=" + getSubjectsChanged()
+            + ", subjectsSkipped=" + getSubjectsSkipped()
+            + ", subjectsFailed=" + getSubjectsFailed()
+            + ", linksCreated=" + getLinksCreated()
+            + ", linksFailed=" + getLinksFailed()
+            + ", nfosWritten=" + getNfosWritten()
+            + ", artworksWritten=" + getArtworksWritten()
+            + ", orphansRemoved=" + getOrphansRemoved()
+            + ", phaseMillis=" + getPhaseMillis()
+            + (reconciles.isEmpty() ? "" : ", reconciles=" + reconciles)
+            + '}';
+    }
+}
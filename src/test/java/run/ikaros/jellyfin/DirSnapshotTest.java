@@ -0,0 +1,67 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirSnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void dirIsListedOnceAndAnsweredFromMemory() throws IOException {
+        Files.writeString(dir.resolve("tvshow.nfo"), "nfo");
+        DirSnapshot dirs = new DirSnapshot();
+
+        assertTrue(dirs.exists(dir.resolve("tvshow.nfo")));
+        // written behind the snapshot's back, not seen
+        Files.writeString(dir.resolve("ep01.nfo"), "nfo");
+
+        assertFalse(dirs.exists(dir.resolve("ep01.nfo")));
+        assertEquals(Set.of("tvshow.nfo"), dirs.names(dir));
+    }
+
+    @Test
+    void reportedChangesKeepTheSnapshotCurrent() {
+        DirSnapshot dirs = new DirSnapshot();
+        Path nfo = dir.resolve("tvshow.nfo");
+
+        dirs.created(nfo);
+        assertTrue(dirs.exists(nfo));
+        dirs.deleted(nfo);
+        assertFalse(dirs.exists(nfo));
+    }
+
+    @Test
+    void movedDirTakesItsEntriesAlong() throws IOException {
+        Path source = Files.createDirectory(dir.resolve("Old (2020-01-01)"));
+        Files.writeString(source.resolve("tvshow.nfo"), "nfo");
+        Path target = dir.resolve("New (2020-01-01)");
+        DirSnapshot dirs = new DirSnapshot();
+        assertTrue(dirs.exists(source.resolve("tvshow.nfo")));
+
+        Files.move(source, target);
+        dirs.moved(source, target);
+
+        assertFalse(dirs.exists(source));
+        assertTrue(dirs.exists(target));
+        assertTrue(dirs.exists(target.resolve("tvshow.nfo")));
+        assertTrue(dirs.names(source).isEmpty());
+    }
+
+    @Test
+    void missingDirIsEmpty() {
+        DirSnapshot dirs = new DirSnapshot();
+
+        assertFalse(dirs.exists(dir.resolve("missing/tvshow.nfo")));
+        assertTrue(dirs.names(dir.resolve("missing")).isEmpty());
+    }
+}
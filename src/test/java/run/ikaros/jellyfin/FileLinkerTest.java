@@ -0,0 +1,153 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileLinkerTest {
+    @TempDir
+    Path dir;
+
+    private SyncConfig syncConfig;
+    private FileLinker fileLinker;
+    private final AtomicInteger probes = new AtomicInteger();
+
+    /**
+     * A linker whose hard link is never possible and counts its attempts.
+     */
+    @BeforeEach
+    void setUp() {
+        syncConfig = new SyncConfig();
+        syncConfig.setLinkStrategies("hardlink,copy");
+        fileLinker = new FileLinker(syncConfig);
+        fileLinker.strategies = List.of(new LinkStrategy() {
+            @Override
+            public String name() {
+                return "hardlink";
+            }
+
+            @Override
+            public void link(Path link, Path existing) throws IOException {
+                probes.incrementAndGet();
+                throw new UnsupportedLinkException("cross-device link", null);
+            }
+        }, new LinkStrategy.Copy());
+    }
+
+    @Test
+    void fallsBackOnUnsupportedAndProbesOncePerFilesystemPair() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            Path source = source("ep0" + i + ".mkv", "episode " + i);
+
+            LinkStrategy used = fileLinker.link(dir.resolve("ep0" + i + "-link.mkv"), source);
+
+            assertEquals("copy", used.name());
+            assertEquals("episode " + i, Files.readString(dir.resolve("ep0" + i + "-link.mkv")));
+        }
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    void failureOfSingleFileIsRethrownAndKeepsTheChoice() throws IOException {
+        fileLinker.link(dir.resolve("ep01-link.mkv"), source("ep01.mkv", "episode"));
+
+        assertThrows(NoSuchFileException.class,
+            () -> fileLinker.link(dir.resolve("ep02-link.mkv"), dir.resolve("missing.mkv")));
+
+        LinkStrategy used = fileLinker.link(dir.resolve("ep03-link.mkv"),
+            source("ep03.mkv", "episode"));
+        assertEquals("copy", used.name());
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    void noUsableStrategyFails() {
+        syncConfig.setLinkStrategies("hardlink");
+
+        IOException e = assertThrows(IOException.class, () ->
+            fileLinker.link(dir.resolve("ep01-link.mkv"), source("ep01.mkv", "episode")));
+
+        assertInstanceOf(LinkStrategy.UnsupportedLinkException.class, e);
+    }
+
+    @Test
+    void copyIsCurrentUntilTheSourceChanges() throws IOException {
+        Path source = source("ep01.mkv", "episode");
+        Path link = dir.resolve("ep01-link.mkv");
+        fileLinker.link(link, source);
+
+        assertTrue(fileLinker.isCurrent(link, source));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(
+            Files.getLastModifiedTime(source).toMillis() + 10_000));
+        assertFalse(fileLinker.isCurrent(link, source));
+    }
+
+    @Test
+    void symbolicLinkIsCurrentWhilePointingAtTheSource() throws IOException {
+        Path source = source("ep01.mkv", "episode");
+        Path link = dir.resolve("ep01-link.mkv");
+        new LinkStrategy.SymbolicLink().link(link, source);
+
+        assertTrue(fileLinker.isCurrent(link, source));
+        assertFalse(fileLinker.isCurrent(link, source("ep02.mkv", "episode")));
+    }
+
+    @Test
+    void reflinkWithoutCpIsUnsupported() throws IOException {
+        LinkStrategy reflink = new LinkStrategy.Reflink(dir.resolve("no-cp").toString(), 5);
+
+        assertThrows(LinkStrategy.UnsupportedLinkException.class, () ->
+            reflink.link(dir.resolve("ep01-link.mkv"), source("ep01.mkv", "episode")));
+    }
+
+    @Test
+    void reflinkWithCpRejectingTheOptionIsUnsupported() throws IOException {
+        Path cp = script("busybox-cp",
+            "echo \"cp: unrecognized option: reflink=always\" >&2; exit 1");
+        LinkStrategy reflink = new LinkStrategy.Reflink(cp.toString(), 5);
+
+        assertThrows(LinkStrategy.UnsupportedLinkException.class, () ->
+            reflink.link(dir.resolve("ep01-link.mkv"), source("ep01.mkv", "episode")));
+    }
+
+    @Test
+    void reflinkTimesOutOnAHangingCp() throws IOException {
+        Path cp = script("hanging-cp", "echo started; sleep 10");
+        LinkStrategy reflink = new LinkStrategy.Reflink(cp.toString(), 1);
+        Path source = source("ep01.mkv", "episode");
+
+        long start = System.nanoTime();
+        IOException e = assertThrows(IOException.class, () ->
+            reflink.link(dir.resolve("ep01-link.mkv"), source));
+
+        assertFalse(e instanceof LinkStrategy.UnsupportedLinkException);
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    private Path source(String name, String content) throws IOException {
+        Path sources = Files.createDirectories(dir.resolve("sources"));
+        return Files.writeString(sources.resolve(name), content);
+    }
+
+    private Path script(String name, String body) throws IOException {
+        Path script = dir.resolve(name);
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        return script;
+    }
+}
@@ -0,0 +1,147 @@
+package run.ikaros.jellyfin;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JellyfinNotifierTest {
+    private HttpServer server;
+    private SyncConfig syncConfig;
+    private JellyfinNotifier notifier;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    /**
+     * Statuses to answer with in turn, 204 once used up.
+     */
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+    record Request(String method, String path, String token, String body) {
+    }
+
+    /**
+     * A local stand-in of the Jellyfin media updated endpoint.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requests.add(new Request(exchange.getRequestMethod(),
+                    exchange.getRequestURI().getPath(),
+                    exchange.getRequestHeaders().getFirst("X-Emby-Token"),
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+            Integer status = statuses.poll();
+            exchange.sendResponseHeaders(status == null ? 204 : status, -1);
+            exchange.close();
+        });
+        server.start();
+
+        syncConfig = new SyncConfig();
+        syncConfig.setNotifyDelaySeconds(1);
+        syncConfig.setNotifyIntervalMillis(0);
+        syncConfig.setJellyfinServers(List.of(new JellyfinServer()
+            .setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+            .setApiKey("secret")));
+        notifier = new JellyfinNotifier(syncConfig);
+    }
+
+    @AfterEach
+    void tearDown() {
+        notifier.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    void coalescesUpdatesIntoBatches() throws InterruptedException {
+        syncConfig.setNotifyBatchSize(2);
+
+        notifier.notifyUpdated(updates(Path.of("/media/a"), SyncReport.DirUpdate.CREATED));
+        notifier.notifyUpdated(updates(Path.of("/media/a"), SyncReport.DirUpdate.MODIFIED,
+            Path.of("/media/b"), SyncReport.DirUpdate.DELETED));
+        notifier.notifyUpdated(updates(Path.of("/media/c"), SyncReport.DirUpdate.MODIFIED));
+
+        Request first = awaitRequest();
+        assertEquals("POST", first.method());
+        assertEquals("/Library/Media/Updated", first.path());
+        assertEquals("{\"Updates\":["
+            + "{\"Path\":\"/media/a\",\"UpdateType\":\"Created\"},"
+            + "{\"Path\":\"/media/b\",\"UpdateType\":\"Deleted\"}]}", first.body());
+        assertEquals("{\"Updates\":[{\"Path\":\"/media/c\",\"UpdateType\":\"Modified\"}]}",
+            awaitRequest().body());
+        assertNull(requests.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void sendsApiKeyAsToken() throws InterruptedException {
+        notifier.notifyUpdated(updates(Path.of("/media/a"), SyncReport.DirUpdate.CREATED));
+
+        assertEquals("secret", awaitRequest().token());
+    }
+
+    @Test
+    void retriesServerErrorsWithBackoff() throws InterruptedException {
+        statuses.addAll(List.of(503, 500));
+
+        notifier.notifyUpdated(updates(Path.of("/media/a"), SyncReport.DirUpdate.CREATED));
+
+        Request first = awaitRequest();
+        long firstTime = System.nanoTime();
+        Request second = awaitRequest();
+        long secondTime = System.nanoTime();
+        Request third = awaitRequest();
+        long thirdTime = System.nanoTime();
+        assertEquals(first.body(), second.body());
+        assertEquals(first.body(), third.body());
+        // backoff of 1s, then 2s, each with up to half of it as jitter
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(secondTime - firstTime) >= 400);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(thirdTime - secondTime) >= 900);
+        assertNull(requests.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void givesUpOnClientErrors() throws InterruptedException {
+        statuses.add(401);
+
+        notifier.notifyUpdated(updates(Path.of("/media/a"), SyncReport.DirUpdate.CREATED));
+
+        awaitRequest();
+        assertNull(requests.poll(2, TimeUnit.SECONDS));
+        // the batch is dropped, later updates are sent on their own
+        notifier.notifyUpdated(updates(Path.of("/media/b"), SyncReport.DirUpdate.CREATED));
+        assertEquals("{\"Updates\":[{\"Path\":\"/media/b\",\"UpdateType\":\"Created\"}]}",
+            awaitRequest().body());
+    }
+
+    private Request awaitRequest() throws InterruptedException {
+        Request request = requests.poll(10, TimeUnit.SECONDS);
+        assertNotNull(request);
+        return request;
+    }
+
+    private static Map<Path, SyncReport.DirUpdate> updates(Object... dirsAndUpdates) {
+        Map<Path, SyncReport.DirUpdate> updates = new LinkedHashMap<>();
+        for (int i = 0; i < dirsAndUpdates.length; i += 2) {
+            updates.put((Path) dirsAndUpdates[i], (SyncReport.DirUpdate) dirsAndUpdates[i + 1]);
+        }
+        return updates;
+    }
+}
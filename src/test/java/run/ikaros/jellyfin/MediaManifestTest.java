@@ -0,0 +1,110 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaManifestTest {
+    @TempDir
+    Path mediaDir;
+
+    @Test
+    void saveAndLoadKeepEveryEntryFieldAndAttribute() {
+        MediaManifest.Entry complete = new MediaManifest.Entry("fp-1", "/media/A (2020-01-01)",
+            1700000000000L)
+            .setMetaFingerprint("meta-1")
+            .setCheckTime(1700000005000L);
+        MediaManifest.Entry incomplete = new MediaManifest.Entry("fp-2",
+            "/media/B = C (2021-01-01)", null, 3, 1700000010000L);
+        MediaManifest manifest = MediaManifest.load(mediaDir);
+        manifest.put(1L, complete);
+        manifest.put(2L, incomplete);
+        manifest.setAttribute("bulk-build", "started");
+        manifest.save();
+
+        MediaManifest loaded = MediaManifest.load(mediaDir);
+
+        assertEquals(Set.of(1L, 2L), loaded.subjectIds());
+        assertEquals(Optional.of(complete), loaded.get(1L));
+        assertEquals(Optional.of(incomplete), loaded.get(2L));
+        assertTrue(loaded.get(2L).orElseThrow().isIncomplete());
+        assertEquals(Optional.of("started"), loaded.getAttribute("bulk-build"));
+    }
+
+    @Test
+    void removedEntriesAndAttributesAreNotSavedAgain() {
+        MediaManifest manifest = MediaManifest.load(mediaDir);
+        manifest.put(1L, new MediaManifest.Entry("fp-1", "/media/A"));
+        manifest.put(2L, new MediaManifest.Entry("fp-2", "/media/B"));
+        manifest.setAttribute("bulk-build", "started");
+        manifest.save();
+
+        manifest.remove(2L);
+        manifest.setAttribute("bulk-build", null);
+        manifest.save();
+
+        MediaManifest loaded = MediaManifest.load(mediaDir);
+        assertEquals(Set.of(1L), loaded.subjectIds());
+        assertTrue(loaded.getAttribute("bulk-build").isEmpty());
+    }
+
+    @Test
+    void saveReplacesTheFileWithoutLeavingATempFile() throws IOException {
+        MediaManifest manifest = MediaManifest.load(mediaDir);
+        manifest.put(1L, new MediaManifest.Entry("fp-1", "/media/A"));
+        manifest.save();
+        manifest.put(1L, new MediaManifest.Entry("fp-2", "/media/A"));
+        manifest.save();
+
+        try (var entries = Files.list(mediaDir)) {
+            assertEquals(List.of(MediaManifest.FILE_NAME),
+                entries.map(path -> path.getFileName().toString()).toList());
+        }
+        assertEquals("fp-2",
+            MediaManifest.load(mediaDir).get(1L).orElseThrow().getFingerprint());
+    }
+
+    @Test
+    void saveWithoutChangesWritesNothing() {
+        MediaManifest.load(mediaDir).save();
+
+        assertFalse(Files.exists(mediaDir.resolve(MediaManifest.FILE_NAME)));
+    }
+
+    @Test
+    void unreadableManifestLoadsEmpty() throws IOException {
+        // a dir in place of the file fails to read like a broken file would
+        Files.createDirectory(mediaDir.resolve(MediaManifest.FILE_NAME));
+
+        assertEquals(0, MediaManifest.load(mediaDir).size());
+    }
+
+    @Test
+    void malformedKeysAndValuesAreSkipped() throws IOException {
+        Files.writeString(mediaDir.resolve(MediaManifest.FILE_NAME), String.join("\n",
+            "subject.1.fingerprint=fp-1",
+            "subject.1.dir=/media/A",
+            "subject.1.updated=yesterday",
+            "subject.1.incomplete=many",
+            "subject.1.checked=",
+            "subject.x.fingerprint=fp-x",
+            "subject.fingerprint=fp-y",
+            "other=value"));
+
+        MediaManifest manifest = MediaManifest.load(mediaDir);
+
+        assertEquals(Set.of(1L), manifest.subjectIds());
+        assertEquals(new MediaManifest.Entry("fp-1", "/media/A"),
+            manifest.get(1L).orElseThrow());
+    }
+}
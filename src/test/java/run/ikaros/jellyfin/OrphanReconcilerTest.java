@@ -0,0 +1,195 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrphanReconcilerTest {
+    @TempDir
+    Path mediaDir;
+
+    private SyncConfig syncConfig;
+    private MediaManifest manifest;
+    private ExpectedMediaTree expected;
+    private Path expectedDir;
+    private Path orphanDir;
+    private Path protectedDir;
+    private Path foreignDir;
+
+    /**
+     * Fixture media dir with split nsfw dirs:
+     * an expected subject dir with a stale episode nfo, the dir of a removed subject,
+     * the dir of a subject that failed this run, and a dir the sync did not generate.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        syncConfig = new SyncConfig();
+        syncConfig.setOrphanDeletesPerSecond(0);
+        expectedDir = subjectDir("normal/Expected (2020-01-01)",
+            "tvshow.nfo", "ep01.mkv", "ep01.nfo", "ep02.nfo", "poster.jpg");
+        orphanDir = subjectDir("nsfw/Removed (2020-01-01)", "tvshow.nfo", "ep01.mkv");
+        protectedDir = subjectDir("normal/Failed (2020-01-01)",
+            "tvshow.nfo", "ep01.mkv", "ep01.nfo");
+        foreignDir = subjectDir("normal/Foreign", "movie.mkv");
+
+        manifest = MediaManifest.load(mediaDir);
+        manifest.put(1L, new MediaManifest.Entry("a", expectedDir.toString()));
+        manifest.put(2L, new MediaManifest.Entry("b", orphanDir.toString()));
+        manifest.put(3L, new MediaManifest.Entry("c", protectedDir.toString()));
+
+        expected = new ExpectedMediaTree();
+        expected.expect(1L, expectedDir, Set.of("tvshow.nfo", "ep01.mkv", "ep01.nfo"));
+        expected.protect(3L, protectedDir);
+    }
+
+    @Test
+    void deleteRemovesOrphansOnly() {
+        syncConfig.setOrphanAction(SyncConfig.OrphanAction.DELETE);
+        SyncReport report = new SyncReport();
+
+        ReconcileReport reconcile = reconcile(false, report);
+
+        assertEquals(1, reconcile.getOrphanDirs());
+        assertEquals(1, reconcile.getOrphanFiles());
+        assertEquals(2, reconcile.getRemoved());
+        assertEquals(0, reconcile.getFailed());
+        assertEquals(1, reconcile.getManifestEntriesRemoved());
+        assertFalse(Files.exists(orphanDir));
+        assertFalse(Files.exists(expectedDir.resolve("ep02.nfo")));
+        assertKept();
+        assertEquals(Set.of(1L, 3L), manifest.subjectIds());
+        assertEquals(SyncReport.DirUpdate.DELETED, report.updatedDirs().get(orphanDir));
+        assertEquals(SyncReport.DirUpdate.MODIFIED, report.updatedDirs().get(expectedDir));
+    }
+
+    @Test
+    void quarantineMovesOrphanDirs() {
+        syncConfig.setOrphanAction(SyncConfig.OrphanAction.QUARANTINE);
+
+        ReconcileReport reconcile = reconcile(false, new SyncReport());
+
+        assertEquals(2, reconcile.getRemoved());
+        assertFalse(Files.exists(orphanDir));
+        Path quarantined = mediaDir.resolve(OrphanReconciler.QUARANTINE_DIR_NAME)
+            .resolve("nsfw/Removed (2020-01-01)");
+        assertTrue(Files.exists(quarantined.resolve("tvshow.nfo")));
+        assertTrue(Files.exists(quarantined.resolve("ep01.mkv")));
+        // orphan files of expected dirs are deleted either way
+        assertFalse(Files.exists(expectedDir.resolve("ep02.nfo")));
+        assertKept();
+        assertEquals(Set.of(1L, 3L), manifest.subjectIds());
+    }
+
+    @Test
+    void dryRunTouchesNothing() {
+        SyncReport report = new SyncReport();
+
+        ReconcileReport reconcile = reconcile(true, report);
+
+        assertTrue(reconcile.isDryRun());
+        assertEquals(1, reconcile.getOrphanDirs());
+        assertEquals(1, reconcile.getOrphanFiles());
+        assertEquals(0, reconcile.getRemoved());
+        assertEquals(1, reconcile.getManifestEntriesRemoved());
+        assertTrue(reconcile.getOrphanPaths().contains(orphanDir.toString()));
+        assertTrue(reconcile.getOrphanPaths()
+            .contains(expectedDir.resolve("ep02.nfo").toString()));
+        assertTrue(Files.exists(orphanDir.resolve("ep01.mkv")));
+        assertTrue(Files.exists(expectedDir.resolve("ep02.nfo")));
+        assertKept();
+        assertEquals(Set.of(1L, 2L, 3L), manifest.subjectIds());
+        assertTrue(report.updatedDirs().isEmpty());
+    }
+
+    @Test
+    void nothingSyncedSkipsReconciliation() {
+        ReconcileReport reconcile = new OrphanReconciler(syncConfig).reconcile(mediaDir, 2,
+            manifest, new ExpectedMediaTree(), Set.of(2L), false, new SyncReport());
+
+        assertEquals(0, reconcile.getOrphanDirs());
+        assertTrue(Files.exists(orphanDir));
+        assertEquals(Set.of(1L, 2L, 3L), manifest.subjectIds());
+    }
+
+    @Test
+    void candidatesAreTheSubjectsNotExpected() throws IOException {
+        Path skippedDir = subjectDir("normal/Skipped (2020-01-01)", "tvshow.nfo");
+        Files.writeString(skippedDir.resolve(MediaDirInit.SUBJECT_ID_FILE_NAME), "4");
+        Files.writeString(expectedDir.resolve(MediaDirInit.SUBJECT_ID_FILE_NAME), "1");
+
+        Set<Long> candidates = new OrphanReconciler(syncConfig)
+            .candidateSubjectIds(mediaDir, 2, manifest, expected);
+
+        assertEquals(Set.of(2L, 4L), candidates);
+    }
+
+    @Test
+    void subjectSkippedByTheScanButStillExistingIsKept() throws IOException {
+        Path skippedDir = subjectDir("normal/Skipped (2020-01-01)", "tvshow.nfo", "ep01.mkv");
+        Files.writeString(skippedDir.resolve(MediaDirInit.SUBJECT_ID_FILE_NAME), "4");
+
+        ReconcileReport reconcile = reconcile(false, new SyncReport());
+
+        assertEquals(1, reconcile.getOrphanDirs());
+        assertTrue(Files.exists(skippedDir.resolve("ep01.mkv")));
+        assertFalse(Files.exists(orphanDir));
+    }
+
+    @Test
+    void subjectWithoutEpisodesForNowIsKept() throws IOException {
+        Path emptyDir = subjectDir("nsfw/Empty (2020-01-01)", "tvshow.nfo", "ep01.mkv");
+        manifest.put(5L, new MediaManifest.Entry("e", emptyDir.toString()));
+
+        ReconcileReport reconcile = reconcile(false, new SyncReport());
+
+        assertEquals(1, reconcile.getManifestEntriesRemoved());
+        assertTrue(Files.exists(emptyDir.resolve("ep01.mkv")));
+        assertEquals(Set.of(1L, 3L, 5L), manifest.subjectIds());
+    }
+
+    @Test
+    void staleDirOfSubjectExpectedElsewhereIsRemoved() throws IOException {
+        Path staleDir = subjectDir("nsfw/Expected (2020-01-01)", "tvshow.nfo", "ep01.mkv");
+        Files.writeString(staleDir.resolve(MediaDirInit.SUBJECT_ID_FILE_NAME), "1");
+        Path unknownDir = subjectDir("nsfw/Unknown (2020-01-01)", "tvshow.nfo", "ep01.mkv");
+
+        ReconcileReport reconcile = reconcile(false, new SyncReport());
+
+        assertEquals(2, reconcile.getOrphanDirs());
+        assertFalse(Files.exists(staleDir));
+        assertTrue(Files.exists(unknownDir.resolve("ep01.mkv")));
+    }
+
+    /**
+     * Reconcile with subject 2 confirmed gone.
+     */
+    private ReconcileReport reconcile(boolean dryRun, SyncReport report) {
+        return new OrphanReconciler(syncConfig).reconcile(mediaDir, 2, manifest, expected,
+            Set.of(2L), dryRun, report);
+    }
+
+    private void assertKept() {
+        assertTrue(Files.exists(expectedDir.resolve("ep01.mkv")));
+        assertTrue(Files.exists(expectedDir.resolve("poster.jpg")));
+        assertTrue(Files.exists(protectedDir.resolve("ep01.mkv")));
+        assertTrue(Files.exists(protectedDir.resolve("ep01.nfo")));
+        assertTrue(Files.exists(foreignDir.resolve("movie.mkv")));
+    }
+
+    private Path subjectDir(String path, String... fileNames) throws IOException {
+        Path dir = Files.createDirectories(mediaDir.resolve(path));
+        for (String fileName : fileNames) {
+            Files.writeString(dir.resolve(fileName), fileName);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,100 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubjectChangeDispatcherTest {
+    private SubjectChangeDispatcher dispatcher;
+    private Disposable dispatching;
+    private final AtomicBoolean busy = new AtomicBoolean(true);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<Long> synced = new CopyOnWriteArrayList<>();
+
+    /**
+     * A handler that is busy, completes empty, until told otherwise.
+     */
+    @BeforeEach
+    void setUp() {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.setChangeDebounceSeconds(1);
+        dispatcher = new SubjectChangeDispatcher(syncConfig);
+        dispatching = dispatcher.start(subjectIds -> {
+            calls.incrementAndGet();
+            if (busy.get()) {
+                return Mono.empty();
+            }
+            synced.addAll(subjectIds);
+            return Mono.just(new SyncReport());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatching.dispose();
+    }
+
+    @Test
+    void busyHandlerIsNotRetriedInALoop() throws InterruptedException {
+        LongStream.rangeClosed(1, 300).forEach(dispatcher::notifyChanged);
+
+        TimeUnit.SECONDS.sleep(3);
+
+        // two batches, then a retry after 1s and another after 2s at most
+        assertTrue(calls.get() <= 6, "handler called " + calls.get() + " times");
+        assertTrue(synced.isEmpty());
+    }
+
+    @Test
+    void busyBatchesAreRetriedOnceTheSyncFinished() throws InterruptedException {
+        dispatcher.notifyChanged(1L);
+        dispatcher.notifyChanged(2L);
+        awaitCalls(1);
+
+        busy.set(false);
+        dispatcher.retryBusy();
+        dispatcher.notifyChanged(2L);
+
+        awaitSynced(2);
+        TimeUnit.MILLISECONDS.sleep(1500);
+        assertEquals(Set.of(1L, 2L), Set.copyOf(synced));
+    }
+
+    @Test
+    void busyBatchesAreRetriedAfterADelay() throws InterruptedException {
+        dispatcher.notifyChanged(1L);
+        awaitCalls(1);
+
+        busy.set(false);
+
+        awaitSynced(1);
+        assertEquals(List.of(1L), synced);
+    }
+
+    private void awaitCalls(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && calls.get() < count; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertTrue(calls.get() >= count);
+    }
+
+    private void awaitSynced(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && synced.size() < count; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertTrue(synced.size() >= count, "synced " + synced);
+    }
+}
@@ -0,0 +1,152 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.Test;
+import run.ikaros.api.core.attachment.Attachment;
+import run.ikaros.api.core.subject.Episode;
+import run.ikaros.api.core.subject.EpisodeResource;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectMeta;
+import run.ikaros.api.store.enums.SubjectType;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SubjectFingerprintTest {
+    private static final long VIDEO_ID = 11L;
+    private static final long SUBTITLE_ID = 12L;
+    private static final long PARENT_ID = 10L;
+
+    @Test
+    void equalSnapshotsHaveTheSameFingerprint() {
+        assertEquals(SubjectFingerprint.of(snapshot(snapshot -> { })),
+            SubjectFingerprint.of(snapshot(snapshot -> { })));
+    }
+
+    @Test
+    void imageOrderDoesNotChangeTheFingerprint() {
+        Attachment first = attachment(20L, "poster.jpg");
+        Attachment second = attachment(21L, "fanart.jpg");
+
+        assertEquals(
+            SubjectFingerprint.of(snapshot(snapshot ->
+                snapshot.getImages().put(PARENT_ID, List.of(first, second)))),
+            SubjectFingerprint.of(snapshot(snapshot ->
+                snapshot.getImages().put(PARENT_ID, List.of(second, first)))));
+    }
+
+    @Test
+    void subjectMetadataChangesTheFingerprint() {
+        assertChanges(snapshot -> snapshot.getSubject().setName("Renamed"));
+        assertChanges(snapshot -> snapshot.getSubject().setNsfw(true));
+        assertChanges(snapshot -> snapshot.getSubject().setCover("/cover/other.jpg"));
+    }
+
+    @Test
+    void episodeChangesTheFingerprint() {
+        assertChanges(snapshot -> snapshot.getSubject().getEpisodes().get(0)
+            .setName("Episode renamed"));
+        assertChanges(snapshot -> snapshot.getSubject().getEpisodes().add(Episode.builder()
+            .id(2L).sequence(2).name("Episode 2").build()));
+    }
+
+    @Test
+    void attachmentChangesTheFingerprint() {
+        assertChanges(snapshot -> snapshot.getAttachments().get(VIDEO_ID).setSize(2L));
+        assertChanges(snapshot -> snapshot.getAttachments().get(VIDEO_ID)
+            .setUpdateTime(LocalDateTime.of(2024, 1, 1, 0, 0)));
+        assertChanges(snapshot -> snapshot.getAttachments().get(VIDEO_ID)
+            .setFsPath("/files/moved.mkv"));
+        assertChanges(snapshot -> snapshot.getSubtitles().remove(VIDEO_ID));
+        assertChanges(snapshot -> snapshot.getImages().put(PARENT_ID,
+            List.of(attachment(20L, "poster.jpg"))));
+    }
+
+    @Test
+    void sourceStateChangesTheFingerprint() {
+        SubjectSnapshot snapshot = snapshot(ignored -> { });
+
+        assertNotEquals(SubjectFingerprint.of(snapshot, attachment -> "local"),
+            SubjectFingerprint.of(snapshot, attachment -> "remote-delete"));
+    }
+
+    @Test
+    void metaFingerprintOfSubjectEqualsTheOneOfItsMeta() {
+        Subject subject = snapshot(ignored -> { }).getSubject();
+        SubjectMeta subjectMeta = new SubjectMeta()
+            .setId(subject.getId())
+            .setType(subject.getType())
+            .setName(subject.getName())
+            .setNameCn(subject.getNameCn())
+            .setSummary(subject.getSummary())
+            .setNsfw(subject.getNsfw())
+            .setAirTime(subject.getAirTime())
+            .setCover(subject.getCover())
+            .setInfobox("not part of the dir");
+
+        assertEquals(SubjectFingerprint.ofMeta(subject), SubjectFingerprint.ofMeta(subjectMeta));
+        assertNotEquals(SubjectFingerprint.ofMeta(subject),
+            SubjectFingerprint.ofMeta(subjectMeta.setSummary("Edited")));
+    }
+
+    private static void assertChanges(Consumer<SubjectSnapshot> change) {
+        assertNotEquals(SubjectFingerprint.of(snapshot(snapshot -> { })),
+            SubjectFingerprint.of(snapshot(change)),
+            "fingerprint did not change");
+    }
+
+    /**
+     * A subject with one episode, its video with a subtitle and a poster next to it,
+     * changed by change before it is returned.
+     */
+    private static SubjectSnapshot snapshot(Consumer<SubjectSnapshot> change) {
+        List<Episode> episodes = new ArrayList<>();
+        episodes.add(Episode.builder()
+            .id(1L)
+            .subjectId(1L)
+            .name("Episode 1")
+            .sequence(1)
+            .resources(List.of(EpisodeResource.builder()
+                .attachmentId(VIDEO_ID)
+                .parentAttachmentId(PARENT_ID)
+                .episodeId(1L)
+                .build()))
+            .build());
+        Subject subject = Subject.builder()
+            .id(1L)
+            .type(SubjectType.ANIME)
+            .name("Subject")
+            .nameCn("条目")
+            .summary("Summary")
+            .nsfw(false)
+            .airTime(LocalDateTime.of(2020, 1, 1, 0, 0))
+            .cover("/cover/1.jpg")
+            .episodes(episodes)
+            .build();
+        SubjectSnapshot snapshot = new SubjectSnapshot(subject,
+            new HashMap<>(Map.of(VIDEO_ID, attachment(VIDEO_ID, "ep01.mkv"))),
+            new HashMap<>(Map.of(VIDEO_ID,
+                List.of(attachment(SUBTITLE_ID, "ep01.ass")))),
+            new HashMap<>(Map.of(PARENT_ID, List.of(attachment(20L, "poster.jpg"),
+                attachment(21L, "fanart.jpg")))));
+        change.accept(snapshot);
+        return snapshot;
+    }
+
+    private static Attachment attachment(long id, String name) {
+        return Attachment.builder()
+            .id(id)
+            .parentId(PARENT_ID)
+            .name(name)
+            .fsPath("/files/" + name)
+            .size(1L)
+            .updateTime(LocalDateTime.of(2023, 1, 1, 0, 0))
+            .build();
+    }
+}
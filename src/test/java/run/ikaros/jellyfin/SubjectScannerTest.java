@@ -0,0 +1,95 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.ikaros.api.core.subject.Subject;
+import run.ikaros.api.core.subject.SubjectMeta;
+import run.ikaros.api.core.subject.SubjectOperate;
+import run.ikaros.api.store.enums.SubjectSyncPlatform;
+import run.ikaros.api.wrap.PagingWrap;
+
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SubjectScannerTest {
+    @Test
+    void scanPagesOnWhenTheHostCapsThePageSize() {
+        SubjectScanner scanner = new SubjectScanner(new PagedSubjectOperate(7, 3, false));
+
+        List<Long> ids = scanner.scan(5, meta -> true).map(SubjectMeta::getId)
+            .collectList().block();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), ids);
+    }
+
+    @Test
+    void scanAppliesTheFilter() {
+        SubjectScanner scanner = new SubjectScanner(new PagedSubjectOperate(7, 3, false));
+
+        List<Long> ids = scanner.scan(3, meta -> meta.getId() % 2 == 0).map(SubjectMeta::getId)
+            .collectList().block();
+
+        assertEquals(List.of(2L, 4L, 6L), ids);
+    }
+
+    @Test
+    void scanStopsWhenTheHostIgnoresThePage() {
+        SubjectScanner scanner = new SubjectScanner(new PagedSubjectOperate(7, 3, true));
+
+        List<Long> ids = scanner.scan(3, meta -> true).map(SubjectMeta::getId)
+            .collectList().block();
+
+        assertEquals(List.of(1L, 2L, 3L), ids);
+    }
+
+    /**
+     * Subjects 1 to count, pages capped at maxPageSize.
+     */
+    private record PagedSubjectOperate(int count, int maxPageSize, boolean ignorePage)
+        implements SubjectOperate {
+        @Override
+        public Flux<SubjectMeta> findAllByPageable(PagingWrap<Subject> pagingWrap) {
+            int size = Math.min(pagingWrap.getSize(), maxPageSize);
+            long from = ignorePage ? 0 : (long) (pagingWrap.getPage() - 1) * size;
+            return Flux.fromStream(LongStream.rangeClosed(1, count).boxed())
+                .skip(from)
+                .take(size)
+                .map(id -> SubjectMeta.builder().id(id).build());
+        }
+
+        @Override
+        public Mono<Subject> findById(Long id) {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Subject> create(Subject subject) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Void> update(Subject subject) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Void> removeById(Long id) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Subject> syncByPlatform(Long subjectId, SubjectSyncPlatform platform,
+                                            String platformId) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Subject> findByPlatform(Long subjectId, SubjectSyncPlatform platform,
+                                            String platformId) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package run.ikaros.jellyfin;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import run.ikaros.api.store.enums.SubjectType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncConfigTest {
+    @Test
+    void applyParsesOrphanLinkAndRemoteEpisodeKeys() {
+        SyncConfig syncConfig = new SyncConfig();
+
+        syncConfig.apply(Map.of(
+            "orphanAction", "quarantine",
+            "orphanDryRun", "true",
+            "orphanDeletesPerSecond", "0",
+            "linkStrategies", " Copy, symlink ",
+            "remoteEpisodeMode", "STRM"));
+
+        assertEquals(SyncConfig.OrphanAction.QUARANTINE, syncConfig.getOrphanAction());
+        assertTrue(syncConfig.isOrphanDryRun());
+        assertEquals(0, syncConfig.getOrphanDeletesPerSecond());
+        assertEquals("Copy, symlink", syncConfig.getLinkStrategies());
+        assertEquals(SyncConfig.RemoteEpisodeMode.STRM, syncConfig.getRemoteEpisodeMode());
+    }
+
+    @Test
+    void applyKeepsCurrentValueOfInvalidKeys() {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.apply(Map.of("orphanAction", "QUARANTINE", "orphanDryRun", "true",
+            "linkStrategies", "copy", "remoteEpisodeMode", "STRM"));
+
+        syncConfig.apply(Map.of(
+            "orphanAction", "shred",
+            "orphanDryRun", "maybe",
+            "orphanDeletesPerSecond", "-1",
+            "linkStrategies", "hardlink,teleport",
+            "remoteEpisodeMode", "upload"));
+
+        assertEquals(SyncConfig.OrphanAction.QUARANTINE, syncConfig.getOrphanAction());
+        assertTrue(syncConfig.isOrphanDryRun());
+        assertEquals(200, syncConfig.getOrphanDeletesPerSecond());
+        assertEquals("copy", syncConfig.getLinkStrategies());
+        assertEquals(SyncConfig.RemoteEpisodeMode.STRM, syncConfig.getRemoteEpisodeMode());
+    }
+
+    @Test
+    void applyResetsMissingKeysToDefaults() {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.apply(Map.of("orphanDryRun", "true", "remoteEpisodeMode", "STRM"));
+
+        syncConfig.apply(Map.of());
+
+        assertFalse(syncConfig.isOrphanDryRun());
+        assertEquals(SyncConfig.RemoteEpisodeMode.DELETE, syncConfig.getRemoteEpisodeMode());
+        assertEquals(SyncConfig.OrphanAction.DELETE, syncConfig.getOrphanAction());
+        assertEquals("hardlink,reflink,symlink,copy", syncConfig.getLinkStrategies());
+    }
+
+    @Test
+    void applyParsesOutputTargets() {
+        SyncConfig syncConfig = new SyncConfig();
+
+        syncConfig.apply(Map.of("outputRoot", "/media/jellyfin", "outputTargets",
+            "name=kodi; root=/media/kodi; dialect=kodi; subjectTypes=anime,real; "
+                + "nsfw=exclude; splitNsfw=false\n"
+                + "# name=emby; root=/media/emby\n"
+                + "\n"
+                + "name=emby; root=/media/emby; dialect=EMBY"));
+
+        List<OutputTarget> targets = syncConfig.getTargets();
+        assertEquals(3, targets.size());
+        assertEquals("/media/jellyfin", targets.get(0).getRoot());
+        OutputTarget kodi = targets.get(1);
+        assertEquals("kodi", kodi.getName());
+        assertEquals("/media/kodi", kodi.getRoot());
+        assertEquals(NfoDialect.KODI, kodi.getDialect());
+        assertEquals(Set.of(SubjectType.ANIME, SubjectType.REAL), kodi.getSubjectTypes());
+        assertEquals(OutputTarget.NsfwFilter.EXCLUDE, kodi.getNsfw());
+        assertFalse(kodi.isSplitNsfw());
+        assertEquals(NfoDialect.EMBY, targets.get(2).getDialect());
+        assertTrue(targets.get(2).isSplitNsfw());
+    }
+
+    @Test
+    void applySkipsInvalidAndOverlappingOutputTargets() {
+        SyncConfig syncConfig = new SyncConfig();
+
+        syncConfig.apply(Map.of("outputRoot", "/media/jellyfin", "outputTargets", String.join(
+            "\n",
+            "name=same; root=/media/jellyfin",
+            "name=nested; root=/media/jellyfin/kodi",
+            "name=parent; root=/media",
+            "name=jellyfin; root=/media/other",
+            "name=kodi; root=/media/kodi; dialect=plex",
+            "name=kodi; root=/media/kodi; colour=blue",
+            "root=/media/noname",
+            "name=kodi; root=/media/kodi",
+            "name=kodi; root=/media/kodi2",
+            "name=kodi2; root=/media/kodi/")));
+
+        List<OutputTarget> targets = syncConfig.getTargets();
+        assertEquals(2, targets.size());
+        assertEquals("kodi", targets.get(1).getName());
+        assertEquals("/media/kodi", targets.get(1).getRoot());
+    }
+
+    @Test
+    void applyWithoutOutputTargetsKeepsOnlyTheFirstTarget() {
+        SyncConfig syncConfig = new SyncConfig();
+        syncConfig.apply(Map.of("outputTargets", "name=kodi; root=/media/kodi"));
+
+        syncConfig.apply(Map.of("outputRoot", "media"));
+
+        assertEquals(1, syncConfig.getTargets().size());
+        assertEquals("media", syncConfig.getTargets().get(0).getRoot());
+    }
+
+    @Test
+    void toStringLeavesOutTheApiKey() {
+        SyncConfig syncConfig = new SyncConfig();
+
+        syncConfig.apply(Map.of("jellyfinUrl", "http://127.0.0.1:8096",
+            "jellyfinApiKey", "secret"));
+
+        assertEquals("secret", syncConfig.getJellyfinServers().get(0).getApiKey());
+        assertTrue(syncConfig.toString().contains("http://127.0.0.1:8096"));
+        assertFalse(syncConfig.toString().contains("secret"));
+    }
+
+    @TestFactory
+    Stream<DynamicTest> applyParsesIntKeys() {
+        return Stream.of(
+                new IntKey("verifyHours", SyncConfig::getVerifyHours, 24, 0),
+                new IntKey("warmStartDelaySeconds", SyncConfig::getWarmStartDelaySeconds, 10, 0),
+                new IntKey("recentDays", SyncConfig::getRecentDays, 30, 0),
+                new IntKey("changeDebounceSeconds", SyncConfig::getChangeDebounceSeconds, 5, 1),
+                new IntKey("attachmentPageSize", SyncConfig::getAttachmentPageSize, 200, 1),
+                new IntKey("attachmentCacheSize", SyncConfig::getAttachmentCacheSize, 10000, 0),
+                new IntKey("checkpointInterval", SyncConfig::getCheckpointInterval, 50, 1),
+                new IntKey("posterMaxWidth", SyncConfig::getPosterMaxWidth, 1000, 1),
+                new IntKey("fanartMaxWidth", SyncConfig::getFanartMaxWidth, 1920, 1),
+                new IntKey("thumbMaxWidth", SyncConfig::getThumbMaxWidth, 640, 1),
+                new IntKey("artworkWorkers", SyncConfig::getArtworkWorkers, 0, 0),
+                new IntKey("artworkCacheMb", SyncConfig::getArtworkCacheMb, 64, 0),
+                new IntKey("notifyDelaySeconds", SyncConfig::getNotifyDelaySeconds, 5, 0),
+                new IntKey("notifyBatchSize", SyncConfig::getNotifyBatchSize, 100, 1),
+                new IntKey("notifyIntervalMillis", SyncConfig::getNotifyIntervalMillis, 1000, 0),
+                new IntKey("notifyMaxRetries", SyncConfig::getNotifyMaxRetries, 3, 0))
+            .map(key -> dynamicTest(key.name(), () -> {
+                SyncConfig syncConfig = new SyncConfig();
+                assertEquals(key.defaultValue(), key.getter().applyAsInt(syncConfig));
+
+                syncConfig.apply(Map.of(key.name(), " 7 "));
+                assertEquals(7, key.getter().applyAsInt(syncConfig));
+
+                syncConfig.apply(Map.of(key.name(), String.valueOf(key.min() - 1)));
+                assertEquals(7, key.getter().applyAsInt(syncConfig));
+                syncConfig.apply(Map.of(key.name(), "many"));
+                assertEquals(7, key.getter().applyAsInt(syncConfig));
+
+                syncConfig.apply(Map.of(key.name(), String.valueOf(key.min())));
+                assertEquals(key.min(), key.getter().applyAsInt(syncConfig));
+
+                syncConfig.apply(Map.of(key.name(), ""));
+                assertEquals(key.defaultValue(), key.getter().applyAsInt(syncConfig));
+            }));
+    }
+
+    private record IntKey(String name, ToIntFunction<SyncConfig> getter, int defaultValue,
+                          int min) {
+    }
+}